@@ -1,19 +1,34 @@
 package ca.saultstemarie.dsjquery;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import com.xerox.docushare.DSClass;
 import com.xerox.docushare.DSContentElement;
 import com.xerox.docushare.DSException;
 import com.xerox.docushare.DSHandle;
-import com.xerox.docushare.DSLoginPrincipal;
 import com.xerox.docushare.DSObject;
 import com.xerox.docushare.DSObjectIterator;
 import com.xerox.docushare.DSResultIterator;
@@ -30,6 +45,7 @@ import com.xerox.docushare.property.DSProperties;
 import com.xerox.docushare.query.DSCollectionScope;
 import com.xerox.docushare.query.DSQuery;
 
+import ca.saultstemarie.dsjquery.DSJQueryException.DSJQueryDeferredException;
 import ca.saultstemarie.dsjquery.DSJQueryException.DSJQuerySelectorException;
 
 
@@ -43,8 +59,44 @@ import ca.saultstemarie.dsjquery.DSJQueryException.DSJQuerySelectorException;
  */
 public class DSJQuery implements Iterable<DSObject> {
 		
+	/**
+	 * The DocuShare server and login details, and the DSSessions to use them with.
+	 */
+	private final DSJQuerySessionPool sessionPool;
+	
 	private List<DSObject> dsObjects = null;
 	
+	/**
+	 * Steps that have not been run yet.
+	 * When set, {@link #dsObjects} is populated on first use.
+	 */
+	private DSJQueryPlan pendingPlan = null;
+	
+	/**
+	 * The most pooled DSSessions this DSJQuery object may use at the same time.
+	 */
+	private int parallelism = 1;
+	
+	/**
+	 * TRUE if searches may be answered by the session pool's {@link DSJQueryResultCache}.
+	 */
+	private boolean useResultCache = false;
+	
+	/**
+	 * Changes waiting for {@link #commit()}, or null if changes are saved right away.
+	 */
+	private DSJQueryBatch batch = null;
+	
+	/**
+	 * The most objects changed per second by the methods that return a {@link DSJQueryReport}, or 0 for no limit.
+	 */
+	private int operationsPerSecond = 0;
+	
+	/**
+	 * Property values retrieved ahead of time by {@link #prefetch(String...)}.
+	 */
+	private DSJQueryPropertyCache propertyCache = new DSJQueryPropertyCache();
+	
 	
 	/**
 	 * Creates a new DSJQuery object at the root of the DocuShare library.
@@ -56,12 +108,28 @@ public class DSJQuery implements Iterable<DSObject> {
 	 * @see <a href="https://api.jquery.com/jQuery/">jQuery() | jQuery API</a>
 	 */
 	public DSJQuery() throws DSJQueryException {
-		if (!DSJQuerySessionHandler.isServerSetup()) {
+		this(DSJQuerySessionHandler.getDefaultPool());
+	}
+	
+	
+	/**
+	 * Creates a new DSJQuery object at the root of the DocuShare library,
+	 * using the DocuShare server and login details of the given session pool.
+	 * All DSJQuery objects created from this one use the same pool.
+	 * @category CORE
+	 * 
+	 * @param sessionPool - The session pool to use
+	 * 
+	 * @throws DSJQueryException 
+	 */
+	public DSJQuery(DSJQuerySessionPool sessionPool) throws DSJQueryException {
+		if (!sessionPool.isServerSetup()) {
 			throw new DSJQueryException("DocuShare server settings missing. Set using DSJQuerySessionHandler.serverSetup();");
 		}
-		else if (!DSJQuerySessionHandler.isSessionSetup()) {
+		else if (!sessionPool.isSessionSetup()) {
 			throw new DSJQueryException("DocuShare session settings missing. Set using DSJQuerySessionHandler.sessionSetup();");
 		}
+		this.sessionPool = sessionPool;
 	}
 	
 	
@@ -76,8 +144,28 @@ public class DSJQuery implements Iterable<DSObject> {
 	 * @throws InterruptedException 
 	 */
 	public DSJQuery(String findSelector) throws DSException, DSJQueryException, InterruptedException {
-		this();
-		dsObjects = find(findSelector).dsObjects;
+		this(DSJQuerySessionHandler.getDefaultPool(), findSelector);
+	}
+	
+	
+	/**
+	 * Creates a new DSJQuery object with DSObjects that match the given filter,
+	 * using the given session pool.
+	 * @category CORE
+	 * 
+	 * @param sessionPool  - The session pool to use
+	 * @param findSelector - A find selector
+	 * 
+	 * @throws DSException 
+	 * @throws DSJQueryException 
+	 * @throws InterruptedException 
+	 */
+	public DSJQuery(DSJQuerySessionPool sessionPool, String findSelector) throws DSException, DSJQueryException, InterruptedException {
+		this(sessionPool);
+		
+		DSJQuery found = find(findSelector);
+		dsObjects = found.dsObjects;
+		pendingPlan = found.pendingPlan;
 	}
 	
 	
@@ -90,7 +178,22 @@ public class DSJQuery implements Iterable<DSObject> {
 	 * @throws DSJQueryException
 	 */
 	public DSJQuery(List<DSObject> dsObjects) throws DSJQueryException {
-		this();
+		this(DSJQuerySessionHandler.getDefaultPool(), dsObjects);
+	}
+	
+	
+	/**
+	 * Creates a new DSJQuery object from a list of DSObjects,
+	 * using the given session pool.
+	 * @category CORE
+	 * 
+	 * @param sessionPool - The session pool the DSObjects were retrieved with
+	 * @param dsObjects
+	 * 
+	 * @throws DSJQueryException
+	 */
+	public DSJQuery(DSJQuerySessionPool sessionPool, List<DSObject> dsObjects) throws DSJQueryException {
+		this(sessionPool);
 		this.dsObjects = dsObjects;
 	}
 	
@@ -104,71 +207,280 @@ public class DSJQuery implements Iterable<DSObject> {
 	 * @throws DSJQueryException
 	 */
 	public DSJQuery(DSObject dsObject) throws DSJQueryException {
-		this();
+		this(DSJQuerySessionHandler.getDefaultPool(), dsObject);
+	}
+	
+	
+	/**
+	 * Creates a new DSJQuery object from a single DSObject,
+	 * using the given session pool.
+	 * @category CORE
+	 * 
+	 * @param sessionPool - The session pool the DSObject was retrieved with
+	 * @param dsObject
+	 * 
+	 * @throws DSJQueryException
+	 */
+	public DSJQuery(DSJQuerySessionPool sessionPool, DSObject dsObject) throws DSJQueryException {
+		this(sessionPool);
 		dsObjects = new ArrayList<>(1);
 		dsObjects.add(dsObject);
 	}
 	
 	
 	/**
-	 * Searches beneath all currently selected Collections
-	 * for all Documents and Collections.
-	 * Equivalent to {@code find("*")}
-	 * @category TRAVERSING
-	 *  
-	 * @return A new DSJQuery object
+	 * Creates a new, empty DSJQuery object with the same session pool and settings as an existing one.
+	 * 
+	 * @param source
+	 */
+	private DSJQuery(DSJQuery source) {
+		this.sessionPool = source.sessionPool;
+		this.parallelism = source.parallelism;
+		this.useResultCache = source.useResultCache;
+		this.batch = source.batch;
+		this.operationsPerSecond = source.operationsPerSecond;
+		this.propertyCache = source.propertyCache;
+	}
+	
+	
+	/**
+	 * Creates a DSJQuery object at the root of the library,
+	 * with the same session pool and settings as this one.
+	 * 
+	 * @return The new DSJQuery object
+	 */
+	private DSJQuery derive() {
+		return new DSJQuery(this);
+	}
+	
+	
+	/**
+	 * Creates a DSJQuery object from a list of DSObjects,
+	 * with the same session pool and settings as this one.
+	 * 
+	 * @param newDsObjects
+	 * @return The new DSJQuery object
+	 */
+	private DSJQuery derive(List<DSObject> newDsObjects) {
+		DSJQuery newDSJQuery = new DSJQuery(this);
+		newDSJQuery.dsObjects = newDsObjects;
+		return newDSJQuery;
+	}
+	
+	
+	/**
+	 * Creates a DSJQuery object that will run the given plan when its objects are first needed,
+	 * with the same session pool and settings as this one.
+	 * 
+	 * @param newPendingPlan
+	 * @return The new DSJQuery object
+	 */
+	private DSJQuery derive(DSJQueryPlan newPendingPlan) {
+		DSJQuery newDSJQuery = new DSJQuery(this);
+		newDSJQuery.pendingPlan = newPendingPlan;
+		return newDSJQuery;
+	}
+	
+	
+	/**
+	 * Allows searches to run in parallel, over several pooled DSSessions.
+	 * Searches beneath many Collections are split into groups, and the groups are searched at the same time.
+	 * The Collections are searched in groups of up to {@value DSJQuerySearch#MAX_SCOPE_HANDLES},
+	 * and the objects are returned group by group, in the same order as the groups.
+	 * Objects found in more than one group are only returned the first time.
+	 * Attribute values for {@link #prefetch(String...)} and {@link #sort_byAttributes(String...)} are also retrieved over several threads.
+	 * The setting is passed on to all DSJQuery objects created from the returned object.
+	 * @category CORE
+	 * 
+	 * @param parallelism - The most DSSessions to use at the same time. 1 to run one search at a time.
+	 * @return A new DSJQuery object, with the same objects
+	 */
+	public DSJQuery parallel (int parallelism) {
+		
+		DSJQuery newDSJQuery = clone();
+		newDSJQuery.parallelism = Math.max(1, parallelism);
+		
+		return newDSJQuery;
+	}
+	
+	
+	/**
+	 * Allows searches to be answered by the session pool's result cache, enabled with
+	 * {@link DSJQuerySessionPool#resultCacheSetup(int, long, long)}.
+	 * Repeated searches then reuse the handles found before, until they expire, rather than searching again.
+	 * Searches with {@link #limit(int)} or {@link #slice(int, int)} always go to the server, so they can stop early.
+	 * The setting is passed on to all DSJQuery objects created from the returned object.
+	 * @category CORE
+	 * 
+	 * @param useResultCache - TRUE to use cached results, FALSE to always search the server.
+	 * @return A new DSJQuery object, with the same objects
+	 */
+	public DSJQuery useResultCache (boolean useResultCache) {
+		
+		DSJQuery newDSJQuery = clone();
+		newDSJQuery.useResultCache = useResultCache;
+		
+		return newDSJQuery;
+	}
+	
+	
+	/**
+	 * Limits how quickly bulk changes are made, so large changes do not overwhelm the DocuShare server.
+	 * Applies to {@link #commit()}, {@link #attrAndReport(String, Object)}, {@link #appendAndReport(DSJQuery)} and {@link #removeAndReport()},
+	 * across all of their threads.
+	 * The setting is passed on to all DSJQuery objects created from the returned object.
+	 * @category CORE
+	 * 
+	 * @param operationsPerSecond - The most objects to change each second. 0 for no limit.
+	 * @return A new DSJQuery object, with the same objects
+	 */
+	public DSJQuery throttle (int operationsPerSecond) {
+		
+		DSJQuery newDSJQuery = clone();
+		newDSJQuery.operationsPerSecond = Math.max(0, operationsPerSecond);
+		
+		return newDSJQuery;
+	}
+	
+	
+	/**
+	 * Gets the steps that produce the current set of objects,
+	 * so more steps can be added without running them.
+	 * 
+	 * @return The pending plan, a plan starting from the current objects, or null if at the root of the library.
+	 */
+	private synchronized DSJQueryPlan plan() {
+		
+		if (pendingPlan != null) {
+			return pendingPlan;
+		}
+		else if (dsObjects != null) {
+			return new DSJQueryPlan(dsObjects);
+		}
+		return null;
+	}
+	
+	
+	/**
+	 * Runs the pending plan, if there is one.
+	 * 
+	 * @return The current set of objects, or null if at the root of the library.
 	 * 
 	 * @throws DSException
-	 * @throws DSJQueryException
-	 * @throws InterruptedException
 	 */
-	public DSJQuery find_all() throws DSException, DSJQueryException, InterruptedException {
+	private synchronized List<DSObject> resolve() throws DSException {
+		
+		if (pendingPlan == null) {
+			return dsObjects;
+		}
 		
+		DSJQueryResultCache resultCache = (useResultCache && pendingPlan.isCacheable() ? sessionPool.getResultCache() : null);
 		DSSession dsSession = null;
 		
 		try {
-			dsSession = DSJQuerySessionHandler.getSession();
-		
-			List<DSObject> newDsObjects = null;
-			
-			if (dsObjects == null) {
-				
-				DSQuery query = new DSQuery();
-				DSResultIterator result = dsSession.search(query).iterator();
-				
-				newDsObjects = new ArrayList<>(result.size());
-
-				while (result.hasNext()) {
-					DSObject item = result.nextObject().getObject();
-					newDsObjects.add(item);
-				}
+			if (resultCache != null) {
+				dsObjects = pendingPlan.executeCached(resultCache, sessionPool, parallelism);
 			}
 			else {
-				
-				newDsObjects = new LinkedList<>();
-				
-				for (DSObject parentObj : dsObjects) {
-					
-					if (parentObj instanceof DSCollection) {
-	
-						DSQuery query = new DSQuery();
-						query.addCollectionScope( new DSCollectionScope( new DSHandle[]{parentObj.getHandle()}) );
-	
-						DSResultIterator result = dsSession.search(query).iterator();
-						
-						while (result.hasNext()) {
-							DSObject item = result.nextObject().getObject();
-							newDsObjects.add(item);
-						}
-					}
+				if (pendingPlan.needsSession(parallelism)) {
+					dsSession = sessionPool.getSession();
 				}
+				
+				dsObjects = pendingPlan.execute(dsSession, sessionPool, parallelism);
 			}
 			
-			return new DSJQuery(newDsObjects);
+			pendingPlan = null;
+			
+			return dsObjects;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DSJQueryDeferredException(e);
+		}
+		catch (DSJQueryException e) {
+			throw new DSJQueryDeferredException(e);
 		}
 		finally {
-			DSJQuerySessionHandler.returnSession(dsSession);
+			if (dsSession != null) {
+				sessionPool.returnSession(dsSession);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Runs the pending plan, if there is one,
+	 * for methods that cannot throw checked exceptions.
+	 * 
+	 * @return The current set of objects, or null if at the root of the library.
+	 */
+	private List<DSObject> resolveUnchecked() {
+		try {
+			return resolve();
+		}
+		catch (DSException e) {
+			throw new DSJQueryDeferredException(e);
+		}
+	}
+	
+	
+	/**
+	 * Lists the handles of all selected Collections, to be used as a search scope.
+	 * Each Collection is only included once.
+	 * 
+	 * @return The Collection handles
+	 * 
+	 * @throws DSException
+	 */
+	private List<DSHandle> collectionHandles() throws DSException {
+		
+		List<DSHandle> scopeHandles = new ArrayList<>();
+		DSJQueryHandleSet scopeObjects = new DSJQueryHandleSet();
+		
+		for (DSObject parentObj : resolve()) {
+			if (parentObj instanceof DSCollection && scopeObjects.add(parentObj)) {
+				scopeHandles.add(parentObj.getHandle());
+			}
 		}
+		
+		return scopeHandles;
+	}
+	
+	
+	/**
+	 * Gets the search scope for finding objects beneath the current objects.
+	 * 
+	 * @return The Collection handles, or null to search the whole library when at the root of the library.
+	 * 
+	 * @throws DSException
+	 */
+	private List<DSHandle> scopeHandles() throws DSException {
+		return (resolve() == null ? null : collectionHandles());
+	}
+	
+	
+	/**
+	 * Tests if this DSJQuery object is at the root of the library, with no objects selected.
+	 */
+	private synchronized boolean isRoot() {
+		return (dsObjects == null && pendingPlan == null);
+	}
+	
+	
+	/**
+	 * Searches beneath all currently selected Collections
+	 * for all Documents and Collections.
+	 * Equivalent to {@code find("*")}
+	 * @category TRAVERSING
+	 *  
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	public DSJQuery find_all() throws DSException, DSJQueryException, InterruptedException {
+		return derive(new DSJQueryPlan(new DSJQuerySearch(scopeHandles(), null)));
 	}
 
 	
@@ -186,52 +498,82 @@ public class DSJQuery implements Iterable<DSObject> {
 	 */
 	public DSJQuery find_byHandle (String handle) throws DSException, DSJQueryException, InterruptedException {
 		
+		// Run any pending plan before holding a session of our own
+		return find_byHandle(handle, scopeHandles());
+	}
+	
+	
+	/**
+	 * Searches beneath the given Collections for the object with the given handle.
+	 * 
+	 * @param handle       - i.e. "Document-111"
+	 * @param scopeHandles - The Collections to search beneath, or null to retrieve the object from anywhere in the library.
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	private DSJQuery find_byHandle (String handle, List<DSHandle> scopeHandles) throws DSException, DSJQueryException, InterruptedException {
+		
+		DSJQueryObjectCache objectCache = sessionPool.getObjectCache();
+		
+		if (scopeHandles == null && objectCache != null) {
+			
+			DSObject cachedObj = objectCache.get(handle);
+			
+			if (cachedObj != null) {
+				
+				List<DSObject> newDsObjects = new ArrayList<>(1);
+				newDsObjects.add(cachedObj);
+				
+				return derive(newDsObjects);
+			}
+		}
+		
 		DSSession dsSession = null;
 		
 		try {
 			
-			dsSession = DSJQuerySessionHandler.getSession();
+			dsSession = sessionPool.getSession();
 		
 			List<DSObject> newDsObjects = new ArrayList<>(1);
 			
-			if (dsObjects == null) {
+			if (scopeHandles == null) {
 				
 				try {
 					DSObject obj = dsSession.getObject(new DSHandle(handle));
 					newDsObjects.add(obj);
+					
+					if (objectCache != null) {
+						objectCache.put(obj, dsSession);
+					}
 				}
 				catch (Exception e) {
 					// ignore
 				}
 			}
 			else {
-				for (DSObject parentObj : dsObjects) {
+				for (DSHandle[] scopeBatch : DSJQuerySearch.batchScopeHandles(scopeHandles)) {
 					
-					if (parentObj instanceof DSCollection) {
-	
-						DSQuery query = new DSQuery( DSQuery.matches("handle", handle) );
-						query.addCollectionScope( new DSCollectionScope( new DSHandle[]{parentObj.getHandle()}) );
-						
-						DSResultIterator result = dsSession.search(query).iterator();
-						
-						if (result.hasNext()) {
-							DSObject item = result.nextObject().getObject();
-							newDsObjects.add(item);
-							break;
-						}
-					}
+					DSQuery query = new DSQuery( DSQuery.matches("handle", handle) );
+					query.addCollectionScope( new DSCollectionScope(scopeBatch) );
+					
+					DSResultIterator result = dsSession.search(query).iterator();
 					
 					// Handles are unique.
-					if (newDsObjects.size() > 0) {
+					if (result.hasNext()) {
+						DSObject item = result.nextObject().getObject();
+						newDsObjects.add(item);
 						break;
 					}
 				}
 			}
 			
-			return new DSJQuery(newDsObjects);
+			return derive(newDsObjects);
 		}
 		finally {
-			DSJQuerySessionHandler.returnSession(dsSession);
+			sessionPool.returnSession(dsSession);
 		}
 	}
 	
@@ -249,56 +591,7 @@ public class DSJQuery implements Iterable<DSObject> {
 	 * @throws InterruptedException
 	 */
 	public DSJQuery find_byObjectClass (String className) throws DSException, DSJQueryException, InterruptedException {
-		
-		DSSession dsSession = null;
-		
-		try {
-			
-			dsSession = DSJQuerySessionHandler.getSession();
-		
-			List<DSObject> newDsObjects = null;
-			
-			if (dsObjects == null) {
-				
-				DSQuery query = new DSQuery();
-				query.addClassScope(className);
-				
-				DSResultIterator result = dsSession.search(query).iterator();
-				
-				newDsObjects = new ArrayList<>(result.size());
-				
-				while (result.hasNext()) {
-					DSObject item = result.nextObject().getObject();
-					newDsObjects.add(item);
-				}
-			}
-			else {
-				
-				newDsObjects = new LinkedList<>();
-				
-				for (DSObject parentObj : dsObjects) {
-					
-					if (parentObj instanceof DSCollection) {
-	
-						DSQuery query = new DSQuery();
-						query.addCollectionScope( new DSCollectionScope( new DSHandle[]{parentObj.getHandle()}) );
-						query.addClassScope(className);
-						
-						DSResultIterator result = dsSession.search(query).iterator();
-						
-						while (result.hasNext()) {
-							DSObject item = result.nextObject().getObject();
-							newDsObjects.add(item);
-						}
-					}
-				}
-			}
-			
-			return new DSJQuery(newDsObjects);
-		}
-		finally {
-			DSJQuerySessionHandler.returnSession(dsSession);
-		}
+		return derive(new DSJQueryPlan(new DSJQuerySearch(scopeHandles(), className)));
 	}
 	
 	
@@ -307,7 +600,8 @@ public class DSJQuery implements Iterable<DSObject> {
 	 * that match the given selector.
 	 * @category TRAVERSING
 	 * 
-	 * @param findSelector - i.e. "*" or ".Document" or "#Document-111"
+	 * @param findSelector - i.e. "*" or ".Document" or "#Document-111" or ".Document[title~='Logo']"
+	 *                       or "#Collection-111 .Document" or "#Collection-111 > .Collection"
 	 * @return A new DSJquery object
 	 * 
 	 * @throws DSException 
@@ -317,39 +611,69 @@ public class DSJQuery implements Iterable<DSObject> {
 	 * @see <a href="https://api.jquery.com/find/">find() | jQuery API</a>
 	 */
 	public DSJQuery find (String findSelector) throws DSException, DSJQueryException, InterruptedException {
-
-		/*
-		 * If selectorToken is *, retrieve all child elements
-		 */
-		if (findSelector.equals("*")) {
-			return find_all();
-		}
 		
+		List<DSJQuerySelector.Compound> compounds = DSJQuerySelector.compile(findSelector).compounds;
 		
-		/*
-		 * If selectorToken starts with "#", retrieve by Handle.
-		 */
-		else if (findSelector.startsWith("#")) {
+		DSJQuery found = this;
+		
+		for (int index = 0; index < compounds.size(); index += 1) {
+			
+			DSJQuerySelector.Compound compound = compounds.get(index);
+			
+			/*
+			 * Children are listed from each selected Collection, then filtered.
+			 */
+			if (compound.combinator == DSJQuerySelector.Combinator.CHILD) {
+				found = found.children().filter_bySelector(compound);
+			}
+			
+			/*
+			 * A handle followed by descendants, from the root of the library,
+			 * is used as the search scope without retrieving the handle's object first.
+			 */
+			else if (compound.isHandleOnly() && index + 1 < compounds.size()
+					&& compounds.get(index + 1).combinator == DSJQuerySelector.Combinator.DESCENDANT
+					&& found.isRoot()) {
+				
+				index += 1;
+				found = found.find_byCompound(compounds.get(index), Collections.singletonList(new DSHandle(compound.handle)));
+			}
 			
-			String handle = findSelector.substring(1);
-			return find_byHandle(handle);
+			else {
+				found = found.find_byCompound(compound, found.scopeHandles());
+			}
 		}
 		
-		/*
-		 * If selectorToken starts with a ".", search by class name.
-		 */
-		else if (findSelector.startsWith(".")) {
-			
-			String className = findSelector.substring(1);
-			return find_byObjectClass(className);	
+		return found;
+	}
+	
+	
+	/**
+	 * Searches beneath the given Collections for objects that match a compound selector.
+	 * A handle is retrieved directly, a class is added to the search,
+	 * and the rest of the selector is added as filters, which are also added to the search where possible.
+	 * 
+	 * @param compound
+	 * @param scopeHandles - The Collections to search beneath, or null to search the whole library.
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	private DSJQuery find_byCompound (DSJQuerySelector.Compound compound, List<DSHandle> scopeHandles) throws DSException, DSJQueryException, InterruptedException {
+		
+		if (compound.handle != null) {
+			return find_byHandle(compound.handle, scopeHandles).filter_bySelector(compound);
 		}
 		
-		throw new DSJQuerySelectorException(findSelector);
+		return derive(new DSJQueryPlan(new DSJQuerySearch(scopeHandles, compound.className))).filter_bySelector(compound);
 	}
 	
 	
 	/**
 	 * Retrieves the immediate descendants for all selected collections. 
+	 * Objects linked under more than one of the collections are only included once.
 	 * @category TRAVERSING
 	 * 
 	 * @return A new DSJQuery object
@@ -361,11 +685,12 @@ public class DSJQuery implements Iterable<DSObject> {
 	 */
 	public DSJQuery children () throws DSException, DSJQueryException {
 		
-		if (dsObjects == null) {
-			return new DSJQuery(new ArrayList<>(0));			
+		if (resolve() == null) {
+			return derive(new ArrayList<>(0));			
 		}
 		
-		List<DSObject> newDsObjects = new LinkedList<>();
+		List<DSObject> newDsObjects = new ArrayList<>();
+		DSJQueryHandleSet foundObjects = new DSJQueryHandleSet();
 			
 		for (DSObject parentObj : dsObjects) {
 			
@@ -375,12 +700,15 @@ public class DSJQuery implements Iterable<DSObject> {
 
 				while (iterator.hasNext()) {
 					DSObject item = iterator.nextObject();
-					newDsObjects.add(item);
+					
+					if (foundObjects.add(item)) {
+						newDsObjects.add(item);
+					}
 				}
 			}
 		}
 		
-		return new DSJQuery(newDsObjects);
+		return derive(newDsObjects);
 	}
 
 	
@@ -402,459 +730,1372 @@ public class DSJQuery implements Iterable<DSObject> {
 	
 	
 	/**
-	 * Reduces the set of objects to those with property values starting with a given value.
-	 * @category FILTERING
+	 * Retrieves all objects beneath the selected collections, at any depth.
+	 * Collections are listed at the same time over pooled DSSessions, up to the parallelism set with {@link #parallel(int)},
+	 * so objects are in the order they were found, level by level.
+	 * Objects linked under more than one collection are only included once.
+	 * @category TRAVERSING
 	 * 
-	 * @param propertyName
-	 * @param propertyValue
-	 * @param ignoreCase
-	 * @return
+	 * @return A new DSJQuery object
 	 * 
 	 * @throws DSException
 	 * @throws DSJQueryException
+	 * @throws InterruptedException
 	 */
-	public DSJQuery filter_byProperty_startsWith (String propertyName, String propertyValue, boolean ignoreCase) throws DSException, DSJQueryException {
-				
-		List<DSObject> newDsObjects = new ArrayList<>(dsObjects.size() / 2 + 1);	
-		
-		final String propertyValueForCompare = (ignoreCase ? propertyValue.toLowerCase() : propertyValue);
-
-		for (DSObject obj : dsObjects) {
-			
-			Object value = obj.get(propertyName);
-			
-			if (value != null) {
-
-				String stringValue = value.toString();
-				
-				if (ignoreCase) {
-					stringValue = stringValue.toLowerCase();
-				}
-				
-				if (stringValue.startsWith(propertyValueForCompare)) {
-					newDsObjects.add(obj);
-				}
-			}
-		}
-		
-		return new DSJQuery(newDsObjects);
+	public DSJQuery descendants () throws DSException, DSJQueryException, InterruptedException {
+		return descendants("*", 0);
 	}
 	
 	
 	/**
-	 * Reduces the set of objects to those with property values ending with a given value.
-	 * @category FILTERING
+	 * Retrieves all objects beneath the selected collections, at any depth, which satisfy a given filter.
+	 * All collections are walked, whether or not they satisfy the filter.
+	 * @category TRAVERSING
 	 * 
-	 * @param propertyName
-	 * @param propertyValue
-	 * @param ignoreCase
-	 * @return
+	 * @param filterSelector - i.e. ".Document", "[content_type^='image/']"
+	 * @return A new DSJQuery object
 	 * 
 	 * @throws DSException
 	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 * 
+	 * @see #descendants()
 	 */
-	public DSJQuery filter_byProperty_endsWith (String propertyName, String propertyValue, boolean ignoreCase) throws DSException, DSJQueryException {
-		
-		List<DSObject> newDsObjects = new ArrayList<>(dsObjects.size() / 2 + 1);
-		
-		String propertyValueForCompare = (ignoreCase ? propertyValue.toLowerCase() : propertyValue);
-		
-		for (DSObject obj : dsObjects) {
-			
-			Object value = obj.get(propertyName);
-
-			if (value != null) {
-
-				String stringValue = value.toString();
-				
-				if (ignoreCase) {
-					stringValue = stringValue.toLowerCase();
-				}
-				
-				if (stringValue.endsWith(propertyValueForCompare)) {
-					newDsObjects.add(obj);
-				}
-			}
-		}
-		
-		return new DSJQuery(newDsObjects);
+	public DSJQuery descendants (String filterSelector) throws DSException, DSJQueryException, InterruptedException {
+		return descendants(filterSelector, 0);
 	}
 	
 	
 	/**
-	 * Reduces the set of objects to those with property values containing a given value.
-	 * @category FILTERING
+	 * Retrieves the objects beneath the selected collections, down to a maximum depth, which satisfy a given filter.
+	 * @category TRAVERSING
 	 * 
-	 * @param propertyName
-	 * @param propertyValue
-	 * @param ignoreCase
-	 * @return
+	 * @param filterSelector - i.e. ".Document", "[content_type^='image/']", or "*" for all objects
+	 * @param maxDepth       - The most levels to walk, 1 for children only, or 0 for no limit
+	 * @return A new DSJQuery object
 	 * 
 	 * @throws DSException
 	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 * 
+	 * @see #descendants()
 	 */
-	public DSJQuery filter_byProperty_contains (String propertyName, String propertyValue, boolean ignoreCase) throws DSException, DSJQueryException {
-		
-		List<DSObject> newDsObjects = new ArrayList<>(dsObjects.size() / 2 + 1);
-		
-		final String propertyValueForCompare = (ignoreCase ? propertyValue.toLowerCase() : propertyValue);
+	public DSJQuery descendants (String filterSelector, int maxDepth) throws DSException, DSJQueryException, InterruptedException {
 		
-		for (DSObject obj : dsObjects) {
-			
-			Object value = obj.get(propertyName);
-
-			if (value != null) {
-
-				String stringValue = value.toString();
-				
-				if (ignoreCase) {
-					stringValue = stringValue.toLowerCase();
-				}
-				
-				if (stringValue.contains(propertyValueForCompare)) {
-					newDsObjects.add(obj);
-				}
-			}
+		if (resolve() == null) {
+			return derive(new ArrayList<>(0));
 		}
 		
-		return new DSJQuery(newDsObjects);
+		DSJQueryPlan.ObjectFilter filter = selectorFilter(filterSelector);
+		
+		return derive(new DSJQueryTraversal(sessionPool, dsObjects, parallelism, maxDepth, filter).collect());
 	}
 	
 	
 	/**
-	 * Reduces the set of objects to those with property values equal to a given value.
-	 * @category FILTERING
+	 * Streams the objects beneath the selected collections, down to a maximum depth, which satisfy a given filter.
+	 * Objects are streamed as they are found, while the rest of the hierarchy is still being walked,
+	 * so use the stream in a try-with-resources block to stop the walk if the stream is not used to the end.
+	 * 
+	 * <pre>
+	 * try (Stream&lt;DSObject&gt; documents = dsjQuery.descendantsStream(".Document", 0)) {
+	 *     documents.forEach(...);
+	 * }
+	 * </pre>
+	 * @category TRAVERSING
 	 * 
-	 * @param propertyName
-	 * @param propertyValue
-	 * @param ignoreCase
-	 * @return
+	 * @param filterSelector - i.e. ".Document", "[content_type^='image/']", or "*" for all objects
+	 * @param maxDepth       - The most levels to walk, 1 for children only, or 0 for no limit
+	 * @return A Stream of DSObjects
 	 * 
 	 * @throws DSException
 	 * @throws DSJQueryException
+	 * 
+	 * @see #descendants()
 	 */
-	public DSJQuery filter_byProperty_equals (String propertyName, String propertyValue, boolean ignoreCase) throws DSException, DSJQueryException {
+	public Stream<DSObject> descendantsStream (String filterSelector, int maxDepth) throws DSException, DSJQueryException {
 		
-		List<DSObject> newDsObjects = new ArrayList<>(dsObjects.size() / 2 + 1);
+		if (resolve() == null) {
+			return Stream.empty();
+		}
 		
-		String propertyValueForCompare = (ignoreCase ? propertyValue.toLowerCase() : propertyValue);
+		DSJQueryTraversal traversal = new DSJQueryTraversal(sessionPool, dsObjects, parallelism, maxDepth, selectorFilter(filterSelector));
 		
-		for (DSObject obj : dsObjects) {
+		Spliterator<DSObject> spliterator = new Spliterators.AbstractSpliterator<DSObject>(Long.MAX_VALUE, Spliterator.NONNULL) {
 			
-			Object value = obj.get(propertyName);
-			
-			if (value != null) {
-
-				String stringValue = value.toString();
-				
-				if (ignoreCase) {
-					stringValue = stringValue.toLowerCase();
+			@Override
+			public boolean tryAdvance (Consumer<? super DSObject> action) {
+				try {
+					DSObject item = traversal.next();
+					
+					if (item == null) {
+						return false;
+					}
+					
+					action.accept(item);
+					return true;
 				}
-				
-				if (stringValue.equals(propertyValueForCompare)) {
-					newDsObjects.add(obj);
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					traversal.close();
+					throw new DSJQueryDeferredException(e);
+				}
+				catch (DSException | DSJQueryException e) {
+					traversal.close();
+					throw new DSJQueryDeferredException(e);
 				}
 			}
-		}
+		};
 		
-		return new DSJQuery(newDsObjects);
+		return StreamSupport.stream(spliterator, false).onClose(traversal::close);
 	}
 	
 	
 	/**
-	 * Reduces the set of objects to those of a given object class.
-	 * @category FILTERING
+	 * Compiles a selector without combinators into a test for a single object,
+	 * for methods that test objects as they are found rather than filtering a set.
 	 * 
-	 * @param className
-	 * @return
+	 * @param filterSelector - i.e. ".Document", "[content_type^='image/']", or "*" for all objects
+	 * @return The test
 	 * 
-	 * @throws DSException
-	 * @throws DSJQueryException
+	 * @throws DSJQuerySelectorException
 	 */
-	public DSJQuery filter_byObjectClass (String className) throws DSException, DSJQueryException {
+	private DSJQueryPlan.ObjectFilter selectorFilter (String filterSelector) throws DSJQuerySelectorException {
 		
-		List<DSObject> newDsObjectsCopy = new ArrayList<>(dsObjects.size() / 2 + 1);
+		DSJQuerySelector selector = DSJQuerySelector.compile(filterSelector);
 		
-		for (DSObject obj : dsObjects) {
+		if (!selector.isCompound()) {
+			throw new DSJQuerySelectorException(filterSelector, "Combinators can only be used with find()");
+		}
+		
+		DSJQuerySelector.Compound compound = selector.compounds.get(0);
+		
+		if (compound.isUniversal()) {
+			return obj -> true;
+		}
+		
+		return obj -> {
 			
-			String objClassName = obj.getDSClass().getName();
+			if (compound.handle != null && !obj.getHandle().toString().equals(compound.handle)) {
+				return false;
+			}
 			
-			if (objClassName.equals(className)) {
-				newDsObjectsCopy.add(obj);
+			if (compound.className != null && !obj.getDSClass().getName().equals(compound.className)) {
+				return false;
 			}
-		}
-		
-		return new DSJQuery(newDsObjectsCopy);
+			
+			for (DSJQueryPredicate predicate : compound.predicates) {
+				if (!predicate.testValue(getProperty(obj, predicate.propertyName))) {
+					return false;
+				}
+			}
+			
+			return true;
+		};
 	}
 	
 	
 	/**
-	 * Reduces the set of objects to those that match the given selector.
-	 * @category FILTERING
+	 * Retrieves all ancestors of the current objects, nearest first, up to the root of the library.
+	 * Objects in DocuShare may be linked under more than one Collection, so an object may have several lines of ancestors.
+	 * Each ancestor is only included once.
+	 * Parent handles are kept in the session pool's hierarchy cache, if enabled with {@link DSJQuerySessionPool#hierarchyCacheSetup(int, long)}.
+	 * @category TRAVERSING
 	 * 
-	 * @param filterSelector - i.e. ".Document", "[content_type^='image/']"
-	 * @return A new DSJquery object
+	 * @return A new DSJQuery object
 	 * 
 	 * @throws DSException
-	 * @throws DSJQueryException 
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
 	 * 
-	 * @see <a href="https://api.jquery.com/filter/">filter() | jQuery API</a>
+	 * @see <a href="https://api.jquery.com/parents/">parents() | jQuery API</a>
 	 */
-	public DSJQuery filter (String filterSelector) throws DSException, DSJQueryException {
-		
-		/*
-		 * For a filter to work, we must have some objects.
-		 * If none, quit now!
-		 */
+	public DSJQuery parents () throws DSException, DSJQueryException, InterruptedException {
 		
-		if (dsObjects == null)
-			return new DSJQuery();
-		
-		if (dsObjects.size() == 0) {
-			return new DSJQuery(new ArrayList<>(0));
+		if (resolve() == null) {
+			return derive(new ArrayList<>(0));
 		}
-			
 		
-		if (filterSelector.startsWith(".")) {
-			
-			String filterClassName = filterSelector.substring(1);
-			return filter_byObjectClass(filterClassName);
-		}
-		else if (filterSelector.startsWith("[")) {
-			
-			// starts with
-			if (filterSelector.contains("^=")) {
-				
-				String propertyName = filterSelector.substring(1, filterSelector.indexOf("^="));
-				String propertyValue = filterSelector.substring(filterSelector.indexOf("^=") + 3, filterSelector.length() - 2);
-				
-				return filter_byProperty_startsWith(propertyName, propertyValue, false);
-			}
-			
-			// ends with
-			else if (filterSelector.contains("$=")) {
-					
-				String propertyName = filterSelector.substring(1, filterSelector.indexOf("$="));
-				String propertyValue = filterSelector.substring(filterSelector.indexOf("$=") + 3, filterSelector.length() - 2);
-				
-				return filter_byProperty_endsWith(propertyName, propertyValue, false);
-			}
-			
-			// contains
-			else if (filterSelector.contains("~=")) {
-					
-				String propertyName = filterSelector.substring(1, filterSelector.indexOf("~="));
-				String propertyValue = filterSelector.substring(filterSelector.indexOf("~=") + 3, filterSelector.length() - 2);
-				
-				return filter_byProperty_contains(propertyName, propertyValue, false);
-			}
-			else if (filterSelector.contains("=")) {
-				
-				String propertyName = filterSelector.substring(1, filterSelector.indexOf("="));
-				String propertyValue = filterSelector.substring(filterSelector.indexOf("=") + 2, filterSelector.length() - 2);
-				
-				return filter_byProperty_equals(propertyName, propertyValue, false);
-			}
-			else {
-				throw new DSJQuerySelectorException(filterSelector);
-			}
-		}
-		else {
-			throw new DSJQuerySelectorException(filterSelector);
-		}
+		return derive(ancestors(obj -> false));
 	}
-
+	
 	
 	/**
-	 * Filters the current set of documents and collections to only include the first one.
-	 * @category FILTERING
+	 * Retrieves the ancestors of the current objects which satisfy a given filter.
+	 * @category TRAVERSING
 	 * 
-	 * @return A new DSJquery object
-	 * @throws DSJQueryException 
+	 * @param filterSelector - i.e. ".Collection[title^='Projects']"
+	 * @return A new DSJQuery object
 	 * 
-	 * @see <a href="https://api.jquery.com/first/">first() | jQuery API</a>
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 * 
+	 * @see #parents()
 	 */
-	public DSJQuery first () throws DSJQueryException {
-		
-		if (dsObjects.size() > 0) {
-			return new DSJQuery(dsObjects.get(0));
-		}
-		return new DSJQuery(new ArrayList<>(0));
+	public DSJQuery parents (String filterSelector) throws DSException, DSJQueryException, InterruptedException {
+		return parents().filter(filterSelector);
 	}
 	
 	
 	/**
-	 * Sorts the current set of objects using a Comparator.
-	 * @category SORTING
+	 * Retrieves the ancestors of the current objects, up to but not including the first ancestor that matches a selector.
+	 * @category TRAVERSING
 	 * 
-	 * @param comparator - The sorting function
-	 * @return A new, sorted DSJQuery object
+	 * @param selector - i.e. "#Collection-111", ".Collection[title='Archive']"
+	 * @return A new DSJQuery object
 	 * 
-	 * @throws DSJQueryException 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 * 
+	 * @see <a href="https://api.jquery.com/parentsUntil/">parentsUntil() | jQuery API</a>
 	 */
-	public DSJQuery sort (Comparator<DSObject> comparator) throws DSJQueryException {
+	public DSJQuery parentsUntil (String selector) throws DSException, DSJQueryException, InterruptedException {
 		
-		if (dsObjects == null)
-			return new DSJQuery();
-		
-		if (dsObjects.size() == 0) {
-			return new DSJQuery(new ArrayList<>(0));
+		if (resolve() == null) {
+			return derive(new ArrayList<>(0));
 		}
-			
-		List<DSObject> newDsObjects = new ArrayList<>(dsObjects);
-
-		newDsObjects.sort(comparator);
 		
-		return new DSJQuery(newDsObjects);
+		return derive(ancestors(selectorFilter(selector)));
 	}
 	
 	
 	/**
-	 * Sorts the current set of objects in ascending order by an attribute.
-	 * @category SORTING
+	 * For each current object, retrieves the first object that matches a selector,
+	 * testing the object itself, then its parents, then their parents, and so on.
+	 * @category TRAVERSING
 	 * 
-	 * @param attributeName - The attribute to sort by.
-	 * @return A new, sorted DSJQuery object
+	 * @param selector - i.e. ".Collection[title^='Projects']"
+	 * @return A new DSJQuery object, with each matching object included once
 	 * 
 	 * @throws DSException
-	 * @throws DSJQueryException 
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 * 
+	 * @see <a href="https://api.jquery.com/closest/">closest() | jQuery API</a>
 	 */
-	public DSJQuery sortAsc_byAttribute (String attributeName) throws DSException, DSJQueryException {
+	public DSJQuery closest (String selector) throws DSException, DSJQueryException, InterruptedException {
 		
-		Comparator<DSObject> attributeComparator = new Comparator<DSObject>() {
-
-			@SuppressWarnings("unchecked")
-			@Override
-			public int compare(DSObject o1, DSObject o2) {
-
-				Object attr1 = null;
-				try {
-					attr1 = o1.get(attributeName);
-				}
-				catch (Exception e) {}
+		if (resolve() == null) {
+			return derive(new ArrayList<>(0));
+		}
+		
+		DSJQueryPlan.ObjectFilter filter = selectorFilter(selector);
+		DSJQueryHierarchyCache.Walk walk = hierarchyCache().walk();
+		
+		Map<String, DSObject> closestObjects = new LinkedHashMap<>();
+		
+		DSSession dsSession = sessionPool.getSession();
+		
+		try {
+			for (DSObject obj : dsObjects) {
 				
-				Object attr2 = null;
-				try {
-					attr2 = o2.get(attributeName);
-				}
-				catch (Exception e) {}
+				Deque<DSObject> pending = new ArrayDeque<>();
+				Set<String> visitedHandles = new HashSet<>();
 				
-				if (attr1 == null && attr2 == null) {
-					return 0;
-				}
-				else if (attr1 == null) {
-					return -1;
-				}
-				else if (attr2 == null) {
-					return 1;
-				}
-				else if (attr1 instanceof Comparable<?> && attr2 instanceof Comparable<?> && attr1.getClass().equals(attr2.getClass())) {
-					Comparable<Object> obj1 = (Comparable<Object>)attr1;
-					Comparable<Object> obj2 = (Comparable<Object>)attr2;
-							
-					return obj1.compareTo(obj2);
-				}
-				else {
-					String string1 = attr1.toString();
-					String string2 = attr2.toString();
+				pending.add(obj);
+				
+				while (!pending.isEmpty()) {
 					
-					return string1.compareTo(string2);
-				}
-			}
-		};
+					DSObject candidate = pending.poll();
+					
+					if (!visitedHandles.add(candidate.getHandle().toString())) {
+						continue;
+					}
+					
+					if (filter.test(candidate)) {
+						closestObjects.putIfAbsent(candidate.getHandle().toString(), candidate);
+						break;
+					}
+					
+					pending.addAll(walk.getParents(dsSession, candidate));
+				}
+			}
+		}
+		finally {
+			sessionPool.returnSession(dsSession);
+		}
+		
+		return derive(new ArrayList<>(closestObjects.values()));
+	}
+	
+	
+	/**
+	 * Walks up from each current object, level by level, collecting ancestors until one matches the given filter.
+	 * The parents of the current objects are retrieved first, in parallel over pooled DSSessions, as they are the least likely to be cached.
+	 * 
+	 * @param until - Stops walking past an ancestor that matches, without including it
+	 * @return The ancestors, nearest first, each included once
+	 */
+	private List<DSObject> ancestors (DSJQueryPlan.ObjectFilter until) throws DSException, DSJQueryException, InterruptedException {
+		
+		DSJQueryHierarchyCache.Walk walk = hierarchyCache().walk();
+		
+		List<List<DSObject>> parentLists = DSJQueryParallel.map(sessionPool, dsObjects, parallelism, walk::getParents);
+		
+		Map<String, DSObject> ancestors = new LinkedHashMap<>();
+		
+		DSSession dsSession = sessionPool.getSession();
+		
+		try {
+			for (List<DSObject> parents : parentLists) {
+				
+				Deque<DSObject> pending = new ArrayDeque<>(parents);
+				Set<String> visitedHandles = new HashSet<>();
+				
+				while (!pending.isEmpty()) {
+					
+					DSObject ancestor = pending.poll();
+					String handle = ancestor.getHandle().toString();
+					
+					if (!visitedHandles.add(handle) || until.test(ancestor)) {
+						continue;
+					}
+					
+					ancestors.putIfAbsent(handle, ancestor);
+					pending.addAll(walk.getParents(dsSession, ancestor));
+				}
+			}
+		}
+		finally {
+			sessionPool.returnSession(dsSession);
+		}
+		
+		return new ArrayList<>(ancestors.values());
+	}
+	
+	
+	/**
+	 * Gets the session pool's hierarchy cache, or a cache for a single call if none is enabled,
+	 * so ancestors shared by the current objects are still only retrieved once.
+	 */
+	private DSJQueryHierarchyCache hierarchyCache () {
+		
+		DSJQueryHierarchyCache hierarchyCache = sessionPool.getHierarchyCache();
+		
+		return (hierarchyCache != null ? hierarchyCache : new DSJQueryHierarchyCache(0, Long.MAX_VALUE));
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to those that satisfy a predicate.
+	 * If the objects come from a search that has not run yet,
+	 * the predicate is added to the search so the DocuShare server can evaluate it.
+	 * Otherwise, the predicate is tested against each object when the objects are first needed.
+	 * 
+	 * @param predicate
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 */
+	private DSJQuery filter_byPredicate (DSJQueryPredicate predicate) throws DSException, DSJQueryException {
+		
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null) {
+			return derive();
+		}
+		
+		DSJQueryPlan searchPlan = plan.withSearchPredicate(predicate, propertyCache);
+		
+		if (searchPlan != null) {
+			return derive(searchPlan);
+		}
+		
+		return derive(plan.withFilter(obj -> predicate.testValue(getProperty(obj, predicate.propertyName))));
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to those with property values starting with a given value.
+	 * @category FILTERING
+	 * 
+	 * @param propertyName
+	 * @param propertyValue
+	 * @param ignoreCase
+	 * @return
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 */
+	public DSJQuery filter_byProperty_startsWith (String propertyName, String propertyValue, boolean ignoreCase) throws DSException, DSJQueryException {
+		return filter_byPredicate(new DSJQueryPredicate(propertyName, DSJQueryPredicate.Operator.STARTS_WITH, propertyValue, ignoreCase));
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to those with property values ending with a given value.
+	 * @category FILTERING
+	 * 
+	 * @param propertyName
+	 * @param propertyValue
+	 * @param ignoreCase
+	 * @return
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 */
+	public DSJQuery filter_byProperty_endsWith (String propertyName, String propertyValue, boolean ignoreCase) throws DSException, DSJQueryException {
+		return filter_byPredicate(new DSJQueryPredicate(propertyName, DSJQueryPredicate.Operator.ENDS_WITH, propertyValue, ignoreCase));
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to those with property values containing a given value.
+	 * @category FILTERING
+	 * 
+	 * @param propertyName
+	 * @param propertyValue
+	 * @param ignoreCase
+	 * @return
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 */
+	public DSJQuery filter_byProperty_contains (String propertyName, String propertyValue, boolean ignoreCase) throws DSException, DSJQueryException {
+		return filter_byPredicate(new DSJQueryPredicate(propertyName, DSJQueryPredicate.Operator.CONTAINS, propertyValue, ignoreCase));
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to those with property values equal to a given value.
+	 * @category FILTERING
+	 * 
+	 * @param propertyName
+	 * @param propertyValue
+	 * @param ignoreCase
+	 * @return
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 */
+	public DSJQuery filter_byProperty_equals (String propertyName, String propertyValue, boolean ignoreCase) throws DSException, DSJQueryException {
+		return filter_byPredicate(new DSJQueryPredicate(propertyName, DSJQueryPredicate.Operator.EQUALS, propertyValue, ignoreCase));
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to those of a given object class.
+	 * @category FILTERING
+	 * 
+	 * @param className
+	 * @return
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 */
+	public DSJQuery filter_byObjectClass (String className) throws DSException, DSJQueryException {
+		
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null) {
+			return derive();
+		}
+		
+		DSJQueryPlan searchPlan = plan.withSearchClassName(className);
+		
+		if (searchPlan != null) {
+			return derive(searchPlan);
+		}
+		
+		return derive(plan.withFilter(obj -> obj.getDSClass().getName().equals(className)));
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to those that match the given selector.
+	 * @category FILTERING
+	 * 
+	 * @param filterSelector - i.e. ".Document", "[content_type^='image/']", ".Document[title~='Logo' i]"
+	 * @return A new DSJquery object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException 
+	 * 
+	 * @see <a href="https://api.jquery.com/filter/">filter() | jQuery API</a>
+	 */
+	public DSJQuery filter (String filterSelector) throws DSException, DSJQueryException {
+		
+		/*
+		 * For a filter to work, we must have some objects.
+		 * If none, quit now!
+		 * Pending plans are not run here, so the filter can be added to them.
+		 */
+		
+		synchronized (this) {
+			if (dsObjects == null && pendingPlan == null)
+				return derive();
+			
+			if (dsObjects != null && dsObjects.size() == 0) {
+				return derive(new ArrayList<>(0));
+			}
+		}
+		
+		DSJQuerySelector selector = DSJQuerySelector.compile(filterSelector);
+		
+		if (!selector.isCompound()) {
+			throw new DSJQuerySelectorException(filterSelector, "Combinators can only be used with find()");
+		}
+		
+		return filter_bySelector(selector.compounds.get(0));
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to those that match every part of a compound selector.
+	 * 
+	 * @param selector
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 */
+	private DSJQuery filter_bySelector (DSJQuerySelector.Compound selector) throws DSException, DSJQueryException {
+		
+		if (selector.isUniversal()) {
+			return clone();
+		}
+		
+		DSJQuery filtered = this;
+		
+		if (selector.handle != null) {
+			filtered = filtered.filter_byHandle(selector.handle);
+		}
+		
+		if (selector.className != null) {
+			filtered = filtered.filter_byObjectClass(selector.className);
+		}
+		
+		for (DSJQueryPredicate predicate : selector.predicates) {
+			filtered = filtered.filter_byPredicate(predicate);
+		}
+		
+		return filtered;
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to the one with the given handle.
+	 * 
+	 * @param handle - i.e. "Document-111"
+	 * @return A new DSJQuery object
+	 */
+	private DSJQuery filter_byHandle (String handle) {
+		
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null) {
+			return derive();
+		}
+		
+		return derive(plan.withFilter(obj -> obj.getHandle().toString().equals(handle)));
+	}
+
+	
+	/**
+	 * Reduces the set of objects to those that do not match the given selector.
+	 * @category FILTERING
+	 * 
+	 * @param notSelector - i.e. ".Collection", "[content_type^='image/']"
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * 
+	 * @see <a href="https://api.jquery.com/not/">not() | jQuery API</a>
+	 */
+	public DSJQuery not (String notSelector) throws DSException, DSJQueryException {
+		
+		DSJQueryPlan.ObjectFilter selectorFilter = selectorFilter(notSelector);
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null) {
+			return derive();
+		}
+		
+		return derive(plan.withFilter(obj -> !selectorFilter.test(obj)));
+	}
+	
+	
+	/**
+	 * Removes the objects in another DSJQuery object from the set of objects.
+	 * Objects are compared by handle, so the same object retrieved twice is still removed.
+	 * @category FILTERING
+	 * 
+	 * @param notDSJQuery - The objects to remove
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/not/">not() | jQuery API</a>
+	 */
+	public DSJQuery not (DSJQuery notDSJQuery) throws DSException {
+		
+		DSJQueryHandleSet notObjects = new DSJQueryHandleSet(notDSJQuery.resolve());
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null) {
+			return derive();
+		}
+		
+		return derive(plan.withFilter(obj -> !notObjects.contains(obj)));
+	}
+	
+	
+	/**
+	 * Reduces the set of objects to those also in another DSJQuery object.
+	 * Objects are compared by handle, and each object is only included once, in the current order.
+	 * @category FILTERING
+	 * 
+	 * @param otherDSJQuery
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 */
+	public DSJQuery intersect (DSJQuery otherDSJQuery) throws DSException {
+		
+		if (resolve() == null) {
+			return derive();
+		}
+		
+		DSJQueryHandleSet otherObjects = new DSJQueryHandleSet(otherDSJQuery.resolve());
+		DSJQueryHandleSet foundObjects = new DSJQueryHandleSet();
+		
+		List<DSObject> newDsObjects = new ArrayList<>();
+		
+		for (DSObject dsObject : dsObjects) {
+			if (otherObjects.contains(dsObject) && foundObjects.add(dsObject)) {
+				newDsObjects.add(dsObject);
+			}
+		}
+		
+		return derive(newDsObjects);
+	}
+	
+	
+	/**
+	 * Removes repeated objects from the set of objects, keeping the first of each.
+	 * Objects are compared by handle.
+	 * @category FILTERING
+	 * 
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/jQuery.uniqueSort/">jQuery.uniqueSort() | jQuery API</a>
+	 */
+	public DSJQuery unique () throws DSException {
+		
+		if (resolve() == null) {
+			return derive();
+		}
+		
+		return derive(DSJQueryHandleSet.unique(dsObjects));
+	}
+	
+	
+	/**
+	 * Adds the objects in another DSJQuery object to the set of objects.
+	 * Objects are compared by handle, and each object is only included once,
+	 * with the current objects first, followed by the new objects from the other DSJQuery object.
+	 * @category TRAVERSING
+	 * 
+	 * @param addDSJQuery - The objects to add
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/add/">add() | jQuery API</a>
+	 */
+	public DSJQuery add (DSJQuery addDSJQuery) throws DSException {
+		
+		List<DSObject> currentDsObjects = resolve();
+		List<DSObject> addDsObjects = addDSJQuery.resolve();
+		
+		if (currentDsObjects == null && addDsObjects == null) {
+			return derive();
+		}
+		
+		DSJQueryHandleSet foundObjects = new DSJQueryHandleSet();
+		List<DSObject> newDsObjects = new ArrayList<>();
+		
+		for (List<DSObject> sourceDsObjects : Arrays.asList(currentDsObjects, addDsObjects)) {
+			if (sourceDsObjects != null) {
+				for (DSObject dsObject : sourceDsObjects) {
+					if (foundObjects.add(dsObject)) {
+						newDsObjects.add(dsObject);
+					}
+				}
+			}
+		}
+		
+		return derive(newDsObjects);
+	}
+	
+	
+	/**
+	 * Filters the current set of documents and collections to only include the first one.
+	 * @category FILTERING
+	 * 
+	 * @return A new DSJquery object
+	 * @throws DSJQueryException 
+	 * 
+	 * @see <a href="https://api.jquery.com/first/">first() | jQuery API</a>
+	 */
+	public DSJQuery first () throws DSJQueryException {
+		return limit(1);
+	}
+	
+	
+	/**
+	 * Filters the current set of objects to only include the first few.
+	 * Searches stop once enough objects have been found.
+	 * @category FILTERING
+	 * 
+	 * @param count - The most objects to include
+	 * @return A new DSJquery object
+	 * 
+	 * @throws DSJQueryException 
+	 */
+	public DSJQuery limit (int count) throws DSJQueryException {
+		return slice(0, count);
+	}
+	
+	
+	/**
+	 * Filters the current set of objects to a range, skipping some objects, then including the next few.
+	 * Searches stop once the end of the range has been reached.
+	 * @category FILTERING
+	 * 
+	 * @param offset - The number of objects to skip
+	 * @param count  - The most objects to include after those skipped
+	 * @return A new DSJquery object
+	 * 
+	 * @throws DSJQueryException 
+	 * 
+	 * @see <a href="https://api.jquery.com/slice/">slice() | jQuery API</a>
+	 */
+	public DSJQuery slice (int offset, int count) throws DSJQueryException {
+		
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null) {
+			return derive(new ArrayList<>(0));
+		}
+		
+		return derive(plan.withSlice(Math.max(0, offset), Math.max(0, count)));
+	}
+	
+	
+	/**
+	 * Sorts the current set of objects using a Comparator.
+	 * @category SORTING
+	 * 
+	 * @param comparator - The sorting function
+	 * @return A new, sorted DSJQuery object
+	 * 
+	 * @throws DSJQueryException 
+	 */
+	public DSJQuery sort (Comparator<DSObject> comparator) throws DSJQueryException {
+		
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null)
+			return derive();
+		
+		return derive(plan.withSort(comparator));
+	}
+	
+	
+	/**
+	 * Sorts the current set of objects in ascending order by an attribute.
+	 * @category SORTING
+	 * 
+	 * @param attributeName - The attribute to sort by.
+	 * @return A new, sorted DSJQuery object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException 
+	 */
+	public DSJQuery sortAsc_byAttribute (String attributeName) throws DSException, DSJQueryException {
+		return sort_byAttributes(attributeName);
+	}
+	
+	
+	/**
+	 * Sorts the current set of objects by one or more attributes.
+	 * Each object's attribute values are retrieved once, over several threads when {@link #parallel(int)} is set,
+	 * then the objects are sorted in memory.
+	 * Missing values sort first. Numbers and dates are compared by value.
+	 * @category SORTING
+	 * 
+	 * @param sortAttributes - The attributes to sort by, in order of importance.
+	 *                         Prefix an attribute with "-" to sort it in descending order, i.e. "-modified_date".
+	 * @return A new, sorted DSJQuery object
+	 * 
+	 * @throws DSJQueryException 
+	 */
+	public DSJQuery sort_byAttributes (String... sortAttributes) throws DSJQueryException {
+		
+		DSJQuerySortKeys sortKeys = DSJQuerySortKeys.parse(sortAttributes);
+		
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null)
+			return derive();
+		
+		DSJQueryPropertyCache currentPropertyCache = propertyCache;
+		
+		return derive(plan.withSorter((unsortedDsObjects, sortParallelism) -> sortKeys.sort(unsortedDsObjects, currentPropertyCache, sortParallelism)));
+	}
+	
+	
+	/**
+	 * Filters the current set of objects to the first few in sort order.
+	 * Objects are compared as they are retrieved, and only the objects being kept are held,
+	 * so the whole set is never sorted.
+	 * Equivalent to {@code sort_byAttributes(sortAttributes).limit(count)}.
+	 * @category SORTING
+	 * 
+	 * @param count          - The most objects to include
+	 * @param sortAttributes - The attributes to sort by, in order of importance.
+	 *                         Prefix an attribute with "-" to sort it in descending order, i.e. "-create_date".
+	 * @return A new, sorted DSJQuery object
+	 * 
+	 * @throws DSJQueryException 
+	 */
+	public DSJQuery topK (int count, String... sortAttributes) throws DSJQueryException {
+		
+		DSJQuerySortKeys sortKeys = DSJQuerySortKeys.parse(sortAttributes);
+		
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null)
+			return derive(new ArrayList<>(0));
+		
+		return derive(plan.withTop(Math.max(0, count), sortKeys, propertyCache));
+	}
+	
+	
+	/**
+	 * Reverses the order of the current set of objects.
+	 * Can be used to reorder a list in descending order after calling sortAsc.
+	 * @category SORTING
+	 * 
+	 * @return A new DSJQuery object
+	 * 
+	 * @throws DSJQueryException 
+	 */
+	public DSJQuery reverse() throws DSJQueryException {
+		
+		DSJQueryPlan plan = plan();
+		
+		if (plan == null)
+			return derive();
+		
+		return derive(plan.withReverse());
+	}
+	
+	
+	/**
+	 * Retrieves property values for all current objects at once, and keeps them with the objects,
+	 * so later filters, sorts and attr() calls read them without asking DocuShare for each object.
+	 * Properties are retrieved over several threads when {@link #parallel(int)} is set.
+	 * Values changed through attr() are kept up to date.
+	 * @category ATTRIBUTES
+	 * 
+	 * @param propertyNames - i.e. "title", "content_type", "modified_date"
+	 * @return A new DSJQuery object, with the same objects
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	public DSJQuery prefetch (String... propertyNames) throws DSException, DSJQueryException, InterruptedException {
+		
+		List<DSObject> currentDsObjects = resolve();
+		
+		if (currentDsObjects == null) {
+			return derive();
+		}
+		
+		DSJQueryPropertyCache newPropertyCache = propertyCache.withPropertyNames(propertyNames);
+		
+		newPropertyCache.fetch(currentDsObjects, parallelism);
+		
+		DSJQuery newDSJQuery = derive(currentDsObjects);
+		newDSJQuery.propertyCache = newPropertyCache;
+		
+		return newDSJQuery;
+	}
+	
+	
+	/**
+	 * Gets a property value, from the prefetched values when available.
+	 */
+	private Object getProperty (DSObject dsObject, String propertyName) throws DSException {
+		return propertyCache.get(dsObject, propertyName);
+	}
+	
+	
+	/**
+	 * Get the value of an attribute for the first element in the current set.
+	 * @category ATTRIBUTES
+	 * 
+	 * @param attributeName
+	 * @return The selected attribute value
+	 * 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/attr/">attr() | jQuery API</a>
+	 */
+	public Object attr (String attributeName) throws DSException {
+		
+		if (resolve() == null)
+			return null;
+		
+		if (dsObjects.size() == 0) {
+			return null;
+		}
+		
+		Object value = getProperty(dsObjects.get(0), attributeName);
+		return value;
+	}
+	
+	
+	/**
+	 * Get the handle for the first element in the current set.
+	 * @category ATTRIBUTES
+	 * 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/attr/">attr() | jQuery API</a>
+	 */
+	public String handle () throws DSException {
+		
+		if (resolve() == null)
+			return null;
+		
+		if (dsObjects.size() == 0) {
+			return null;
+		}
+		
+		return dsObjects.get(0).getHandle().toString();
+	}
+	
+	
+	/**
+	 * Sets an attribute across all current objects.
+	 * @category ATTRIBUTES
+	 * 
+	 * @param attributeName
+	 * @param value
+	 * @return The current DSJQuery object
+	 * 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/attr/">attr() | jQuery API</a>
+	 */
+	public DSJQuery attr (String attributeName, Object value) throws DSException {
+		
+		if (resolve() == null)
+			return this;
+		
+		for (DSObject obj : dsObjects) {
+			
+			if (batch != null) {
+				batch.setProperty(obj, attributeName, value);
+			}
+			else {
+				obj.set(attributeName, value);
+				obj.save();
+				
+				invalidateCached(obj);
+			}
+			
+			propertyCache.put(obj, attributeName, value);
+		}
+		
+		return this;
+	}
+	
+	
+	/**
+	 * Clears an attribute across all current objects.
+	 * @category ATTRIBUTES
+	 * 
+	 * @param attributeName
+	 * @return The current DSJQuery object
+	 * 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/removeAttr/">removeAttr() | jQuery API</a>
+	 */
+	public DSJQuery removeAttr (String attributeName) throws DSException {
+		return attr(attributeName, "");		
+	}
+	
+	
+	/**
+	 * Sets an attribute across all current objects, saving them in parallel, up to the parallelism set with {@link #parallel(int)}.
+	 * Each object is retrieved again and saved with its worker's own pooled DSSession.
+	 * Unlike {@link #attr(String, Object)}, a failed save does not stop the others.
+	 * @category ATTRIBUTES
+	 * 
+	 * @param attributeName
+	 * @param value
+	 * @return The outcome for each object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	public DSJQueryReport attrAndReport (String attributeName, Object value) throws DSException, DSJQueryException, InterruptedException {
+		
+		long startMillis = System.currentTimeMillis();
+		
+		if (resolve() == null) {
+			return new DSJQueryReport(new ArrayList<>(0), 0);
+		}
+		
+		DSJQueryReport report = changeEach(dsObjects, startMillis, (dsSession, obj) -> {
+			
+			DSObject sessionObj = dsSession.getObject(obj.getHandle());
+			
+			sessionObj.set(attributeName, value);
+			sessionObj.save();
+		});
+		
+		for (int index = 0; index < dsObjects.size(); index += 1) {
+			if (report.getResults().get(index).isSuccess()) {
+				propertyCache.put(dsObjects.get(index), attributeName, value);
+			}
+		}
+		
+		return report;
+	}
+	
+	
+	private static boolean hasKeyword (DSObject dsObject, String keyword, boolean ignoreCase) throws DSException {
+		
+		String currentKeywordsString = dsObject.getKeywords().trim();
+		
+		if (ignoreCase) {
+			keyword = keyword.toLowerCase();
+			currentKeywordsString = currentKeywordsString.toLowerCase();
+		}
+		
+		String[] currentKeywords = currentKeywordsString.split(",");
+		
+		for (String currentKeyword : currentKeywords) {
+
+			if (currentKeyword.trim().equals(keyword)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	
+	/**
+	 * Determines whether any of the current objects have a given keyword,
+	 * with the option to ignore case.
+	 * @category ATTRIBUTES
+	 * 
+	 * @param keyword
+	 * @param ignoreCase - TRUE if case should be ignored
+	 * @return TRUE if the keyword is assigned to at least one object
+	 * 
+	 * @throws DSException
+	 */
+	public boolean hasKeyword (String keyword, boolean ignoreCase) throws DSException {
+		
+		if (resolve() == null) {
+			return false;
+		}
+		
+		for (DSObject dsObject : dsObjects) {
+			
+			if (hasKeyword(dsObject, keyword, ignoreCase)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	
+	/**
+	 * Determines whether any of the current objects have a given keyword.
+	 * @category ATTRIBUTES
+	 * 
+	 * @param keyword
+	 * @return
+	 * 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/hasclass/">hasClass() | jQuery API</a>
+	 */
+	public boolean hasKeyword (String keyword) throws DSException {
+		return hasKeyword (keyword, false);
+	}
+	
+	
+	/**
+	 * Adds a new keyword to the comma-separated keyword list for each DSObject.
+	 * The new keyword is only added if the keyword is not already part of the list.
+	 * @category ATTRIBUTES
+	 * 
+	 * @param keywordToAdd
+	 * @return The current DSJQuery object
+	 * 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/addClass/">addClass() | jQuery API</a>
+	 */
+	public DSJQuery addKeyword (String keywordToAdd) throws DSException {
+		
+		if (resolve() == null)
+			return this;
+		
+		for (DSObject obj : dsObjects) {
+			
+			if (batch != null) {
+				batch.addKeyword(obj, keywordToAdd);
+			}
+			else if (!hasKeyword(obj, keywordToAdd, false)) {
+				
+				obj.setKeywords(DSJQueryBatch.withKeyword(obj.getKeywords(), keywordToAdd));
+				
+				obj.save();
+				invalidateCached(obj);
+			}
+		}
 		
-		return sort(attributeComparator);
+		return this;
 	}
 	
 	
 	/**
-	 * Reverses the order of the current set of objects.
-	 * Can be used to reorder a list in descending order after calling sortAsc.
-	 * @category SORTING
+	 * Removes the first instance of a keyword from the keyword list if it is found. 
+	 * @category ATTRIBUTES
 	 * 
-	 * @return A new DSJQuery object
+	 * @param keywordToRemove
+	 * @return The current DSJQuery object
 	 * 
-	 * @throws DSJQueryException 
+	 * @throws DSException
+	 * 
+	 * @see <a href="https://api.jquery.com/removeClass/">removeClass() | jQuery API</a>
 	 */
-	public DSJQuery reverse() throws DSJQueryException {
+	public DSJQuery removeKeyword (String keywordToRemove) throws DSException {
+		
+		if (resolve() == null)
+			return this;
 		
-		if (dsObjects == null)
-			return new DSJQuery();
+		for (DSObject obj : dsObjects) {
+			
+			if (batch != null) {
+				batch.removeKeyword(obj, keywordToRemove);
+				continue;
+			}
+
+			String currentKeywords = obj.getKeywords();
+			String newKeywords = DSJQueryBatch.withoutKeyword(currentKeywords, keywordToRemove);
+			
+			if (!newKeywords.equals(currentKeywords)) {
+				obj.setKeywords(newKeywords);
+				obj.save();
+				invalidateCached(obj);
+			}
+		}
 		
-		List<DSObject> newObjectList = new ArrayList<>(dsObjects);
+		return this;
+	}
+	
+	
+	/**
+	 * Starts recording attribute and keyword changes instead of saving them right away.
+	 * {@link #attr(String, Object)}, {@link #removeAttr(String)}, {@link #addKeyword(String)} and {@link #removeKeyword(String)}
+	 * are kept per object until {@link #commit()}, which saves each changed object once.
+	 * Values set with {@code attr()} are read back from memory before the commit, other values from the server.
+	 * The batch is shared with all DSJQuery objects created from the returned object.
+	 * @category ATTRIBUTES
+	 * 
+	 * @return A new DSJQuery object, with the same objects
+	 */
+	public DSJQuery batch () {
 		
-		Collections.reverse(newObjectList);
+		DSJQuery newDSJQuery = clone();
+		newDSJQuery.batch = new DSJQueryBatch();
 		
-		return new DSJQuery(newObjectList);
+		return newDSJQuery;
 	}
 	
 	
 	/**
-	 * Get the value of an attribute for the first element in the current set.
+	 * Saves the changes recorded since {@link #batch()}, or since the last commit, with one save per object.
+	 * Objects are saved in parallel, up to the parallelism set with {@link #parallel(int)},
+	 * each retrieved again and saved with its worker's own pooled DSSession.
+	 * A failed save does not stop the others. Each object's outcome is in the returned report.
 	 * @category ATTRIBUTES
 	 * 
-	 * @param attributeName
-	 * @return The selected attribute value
+	 * @return The outcome for each changed object. Empty if no batch was started.
 	 * 
 	 * @throws DSException
-	 * 
-	 * @see <a href="https://api.jquery.com/attr/">attr() | jQuery API</a>
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
 	 */
-	public Object attr (String attributeName) throws DSException {
+	public DSJQueryReport commit () throws DSException, DSJQueryException, InterruptedException {
 		
-		if (dsObjects == null)
-			return null;
+		long startMillis = System.currentTimeMillis();
 		
-		if (dsObjects.size() == 0) {
-			return null;
+		if (batch == null) {
+			return new DSJQueryReport(new ArrayList<>(0), 0);
 		}
 		
-		Object value = dsObjects.get(0).get(attributeName);
-		return value;
+		List<DSObject> changedDsObjects = new ArrayList<>();
+		Map<DSObject, DSJQueryBatch.PendingChange> pendingChanges = new IdentityHashMap<>();
+		
+		for (DSJQueryBatch.PendingChange pendingChange : batch.drain()) {
+			changedDsObjects.add(pendingChange.dsObject);
+			pendingChanges.put(pendingChange.dsObject, pendingChange);
+		}
+		
+		return changeEach(changedDsObjects, startMillis, (dsSession, obj) -> pendingChanges.get(obj).apply(dsSession.getObject(obj.getHandle())));
 	}
 	
 	
 	/**
-	 * Get the handle for the first element in the current set.
-	 * @category ATTRIBUTES
+	 * A change made to one object by a bulk method.
+	 */
+	private interface ObjectChange {
+		void apply (DSSession dsSession, DSObject dsObject) throws DSException;
+	}
+	
+	
+	/**
+	 * Changes each object, spread over the threads allowed by {@link #parallel(int)}, and limited by {@link #throttle(int)}.
+	 * Each thread holds its own pooled DSSession, which changes should use rather than the session that found the objects.
+	 * A failed change does not stop the others.
 	 * 
-	 * @throws DSException
+	 * @param targetDsObjects - The objects to change
+	 * @param startMillis     - When the bulk change started, for the report
+	 * @param change
+	 * @return The outcome for each object
 	 * 
-	 * @see <a href="https://api.jquery.com/attr/">attr() | jQuery API</a>
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
 	 */
-	public String handle () throws DSException {
+	private DSJQueryReport changeEach (List<DSObject> targetDsObjects, long startMillis, ObjectChange change) throws DSException, DSJQueryException, InterruptedException {
 		
-		if (dsObjects == null)
-			return null;
+		DSJQueryThrottle throttle = (operationsPerSecond > 0 ? new DSJQueryThrottle(operationsPerSecond) : null);
 		
-		if (dsObjects.size() == 0) {
-			return null;
+		DSJQueryParallel.SessionTask<DSObject, Exception> task = (dsSession, obj) -> {
+			
+			if (throttle != null) {
+				throttle.acquire();
+			}
+			
+			try {
+				change.apply(dsSession, obj);
+				return null;
+			}
+			catch (DSException | RuntimeException e) {
+				return e;
+			}
+			finally {
+				invalidateCached(obj);
+			}
+		};
+		
+		List<Exception> errors = DSJQueryParallel.map(sessionPool, targetDsObjects, parallelism, task);
+		
+		List<DSJQueryReport.Result> results = new ArrayList<>(targetDsObjects.size());
+		
+		for (int index = 0; index < targetDsObjects.size(); index += 1) {
+			results.add(new DSJQueryReport.Result(targetDsObjects.get(index).getHandle().toString(), errors.get(index)));
 		}
 		
-		return dsObjects.get(0).getHandle().toString();
+		return new DSJQueryReport(results, System.currentTimeMillis() - startMillis);
 	}
 	
 	
 	/**
-	 * Sets an attribute across all current objects.
-	 * @category ATTRIBUTES
+	 * Creates a new DSJQuery object with the same set of matching objects.
 	 * 
-	 * @param attributeName
-	 * @param value
+	 * @see <a href="https://api.jquery.com/clone/">clone() | jQuery API</a>
+	 */
+	public DSJQuery clone() {
+		
+		try {
+			synchronized (this) {
+				if (pendingPlan != null) {
+					return derive(pendingPlan);
+				}
+			}
+			
+			if (dsObjects == null) {
+				return derive();
+			}
+			else {
+				return derive(new ArrayList<>(dsObjects));
+			}
+		}
+		catch (Exception e) {
+			// Exceptions are caught to maintain compatibility with Object.clone();
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Links all child elements under the current set of collections.
+	 * @category INSERTING
+	 * 
+	 * @param newChildren
 	 * @return The current DSJQuery object
 	 * 
 	 * @throws DSException
 	 * 
-	 * @see <a href="https://api.jquery.com/attr/">attr() | jQuery API</a>
+	 * @see <a href="https://api.jquery.com/append/">append() | jQuery API</a>
 	 */
-	public DSJQuery attr (String attributeName, Object value) throws DSException {
+	public DSJQuery append (DSJQuery newChildren) throws DSException {
 		
-		if (dsObjects == null)
+		if (resolve() == null) {
 			return this;
+		}
 		
-		for (DSObject obj : dsObjects) {
-			obj.set(attributeName, value);
-			obj.save();
+		if (newChildren.length() == 0) {
+			return this;
+		}
+		
+		for (DSObject potentialParent : dsObjects) {
+			
+			if (potentialParent instanceof DSCollection) {
+				
+				DSCollection parentCollection = (DSCollection)potentialParent;
+
+				for (DSObject newChild : newChildren.resolve()) {
+					try {
+						parentCollection.addChild(newChild);
+					}
+					catch (DatabaseException e) {
+						// ignore
+					}
+				}
+				
+				parentCollection.save();
+				invalidateCached(parentCollection);
+			}
+		}
+		
+		for (DSObject newChild : newChildren.resolve()) {
+			invalidateCachedParents(newChild);
 		}
 		
 		return this;
@@ -862,304 +2103,391 @@ public class DSJQuery implements Iterable<DSObject> {
 	
 	
 	/**
-	 * Clears an attribute across all current objects.
-	 * @category ATTRIBUTES
+	 * Links all child elements under the current set of collections,
+	 * saving the collections in parallel, up to the parallelism set with {@link #parallel(int)}.
+	 * Each collection is retrieved again and saved with its worker's own pooled DSSession.
+	 * Unlike {@link #append(DSJQuery)}, a failed collection does not stop the others.
+	 * @category INSERTING
 	 * 
-	 * @param attributeName
-	 * @return The current DSJQuery object
+	 * @param newChildren
+	 * @return The outcome for each collection
 	 * 
 	 * @throws DSException
-	 * 
-	 * @see <a href="https://api.jquery.com/removeAttr/">removeAttr() | jQuery API</a>
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
 	 */
-	public DSJQuery removeAttr (String attributeName) throws DSException {
-		return attr(attributeName, "");		
+	public DSJQueryReport appendAndReport (DSJQuery newChildren) throws DSException, DSJQueryException, InterruptedException {
+		
+		long startMillis = System.currentTimeMillis();
+		
+		if (resolve() == null || newChildren.length() == 0) {
+			return new DSJQueryReport(new ArrayList<>(0), 0);
+		}
+		
+		List<DSObject> parentCollections = new ArrayList<>();
+		
+		for (DSObject potentialParent : dsObjects) {
+			if (potentialParent instanceof DSCollection) {
+				parentCollections.add(potentialParent);
+			}
+		}
+		
+		List<DSObject> newChildDsObjects = newChildren.resolve();
+		
+		for (DSObject newChild : newChildDsObjects) {
+			invalidateCachedParents(newChild);
+		}
+		
+		return changeEach(parentCollections, startMillis, (dsSession, parent) -> {
+			
+			DSCollection parentCollection = (DSCollection)dsSession.getObject(parent.getHandle());
+			
+			for (DSObject newChild : newChildDsObjects) {
+				try {
+					parentCollection.addChild(newChild);
+				}
+				catch (DatabaseException e) {
+					// ignore
+				}
+			}
+			
+			parentCollection.save();
+		});
 	}
 	
 	
-	private static boolean hasKeyword (DSObject dsObject, String keyword, boolean ignoreCase) throws DSException {
+	/**
+	 * Removes a changed object from the object cache, if one is enabled.
+	 * Cached search results are also removed, as the change may affect which objects a search finds.
+	 * 
+	 * @param dsObject
+	 */
+	private void invalidateCached (DSObject dsObject) {
 		
-		String currentKeywordsString = dsObject.getKeywords().trim();
+		DSJQueryObjectCache objectCache = sessionPool.getObjectCache();
 		
-		if (ignoreCase) {
-			keyword = keyword.toLowerCase();
-			currentKeywordsString = currentKeywordsString.toLowerCase();
+		if (objectCache != null) {
+			objectCache.invalidate(dsObject);
 		}
 		
-		String[] currentKeywords = currentKeywordsString.split(",");
+		invalidateCachedParents(dsObject);
+		invalidateCachedResults();
+	}
+	
+	
+	/**
+	 * Removes an object's parents from the hierarchy cache, if one is enabled, after it is linked or removed.
+	 * 
+	 * @param dsObject
+	 */
+	private void invalidateCachedParents (DSObject dsObject) {
 		
-		for (String currentKeyword : currentKeywords) {
-
-			if (currentKeyword.trim().equals(keyword)) {
-				return true;
-			}
-		}
+		DSJQueryHierarchyCache hierarchyCache = sessionPool.getHierarchyCache();
 		
-		return false;
+		if (hierarchyCache != null) {
+			hierarchyCache.invalidate(dsObject.getHandle().toString());
+		}
 	}
 	
 	
 	/**
-	 * Determines whether any of the current objects have a given keyword,
-	 * with the option to ignore case.
-	 * @category ATTRIBUTES
+	 * Removes all cached search results, if the result cache is enabled, after objects are added or changed.
+	 */
+	private void invalidateCachedResults () {
+		
+		DSJQueryResultCache resultCache = sessionPool.getResultCache();
+		
+		if (resultCache != null) {
+			resultCache.invalidateAll();
+		}
+	}
+
+	
+	/**
+	 * Uploads a new Document to DocuShare under each Collection in the set.
+	 * @category INSERTING
 	 * 
-	 * @param keyword
-	 * @param ignoreCase - TRUE if case should be ignored
-	 * @return TRUE if the keyword is assigned to at least one object
+	 * @param file - The file to upload to DocuShare.
+	 * @return A new DSJQuery object containing all of the created Documents.
 	 * 
 	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException 
 	 */
-	public boolean hasKeyword (String keyword, boolean ignoreCase) throws DSException {
+	public DSJQuery insertAndGet (File file) throws DSException, DSJQueryException, InterruptedException {
 		
-		if (dsObjects == null) {
-			return false;
+		if (resolve() == null) {
+			return derive(new ArrayList<>(0));
 		}
 		
-		for (DSObject dsObject : dsObjects) {
+		checkUploadFile(file);
+		
+		DSSession dsSession = null;
+		
+		try {
 			
-			if (hasKeyword(dsObject, keyword, ignoreCase)) {
-				return true;
+			dsSession = sessionPool.getSession();
+		
+			List<DSObject> newDsObjects = new ArrayList<>(1);
+	
+			for (DSObject potentialParent : dsObjects) {
+				
+				if (potentialParent instanceof DSCollection) {
+					newDsObjects.add(createDocument(dsSession, (DSCollection)potentialParent, file));
+				}
 			}
+			
+			invalidateCachedResults();
+			
+			return derive(newDsObjects);
+		}
+		finally {
+			sessionPool.returnSession(dsSession);
 		}
+	}
+	
+	
+	private static void checkUploadFile (File file) throws DSJQueryException {
 		
-		return false;
+		if (!file.exists()) {
+			throw new DSJQueryException("File does not exist: " + file.getAbsolutePath());
+		}
+		else if (file.isDirectory()) {
+			throw new DSJQueryException("File is a directory: " + file.getAbsolutePath());
+		}
 	}
 	
 	
 	/**
-	 * Determines whether any of the current objects have a given keyword.
-	 * @category ATTRIBUTES
+	 * Uploads a file as a new Document under a Collection.
+	 * Class definitions and the login principal are reused from earlier uploads with the same session.
 	 * 
-	 * @param keyword
-	 * @return
+	 * @param dsSession
+	 * @param parentCollection
+	 * @param file
+	 * @return The new Document
 	 * 
 	 * @throws DSException
-	 * 
-	 * @see <a href="https://api.jquery.com/hasclass/">hasClass() | jQuery API</a>
 	 */
-	public boolean hasKeyword (String keyword) throws DSException {
-		return hasKeyword (keyword, false);
+	private DSObject createDocument (DSSession dsSession, DSCollection parentCollection, File file) throws DSException {
+		
+		DSJQuerySessionMetadata metadata = sessionPool.getSessionMetadata(dsSession);
+		
+		String title = file.getName();
+		
+		// Document Prototype
+		DSProperties docProto = metadata.createPrototype(dsSession, DSDocument.classname);
+		docProto.setPropValue(DSObject.title, title);
+		
+		// Version Prototype
+		DSProperties versionProto = metadata.createPrototype(dsSession, DSVersion.classname);
+		versionProto.setPropValue(DSObject.title, title);
+		versionProto.setPropValue(DSVersion.revision_comments, "(Initial version)");
+		
+		// Rendition Prototype
+		DSProperties renditionProto = metadata.createPrototype(dsSession, DSRendition.classname);
+		renditionProto.setPropValue(DSRendition.title, title);
+		
+		FileContentElement ce = new FileContentElement(file.getAbsolutePath(), false);
+		
+		DSHandle newDocHandle = dsSession.createDocument(
+				docProto, 
+				versionProto,
+				renditionProto,
+				new DSContentElement[] {ce},
+				null,
+				DSLinkDesc.containment,
+				parentCollection,
+				metadata.getLoginPrincipal(dsSession),
+				null);
+		
+		return dsSession.getObject(newDocHandle);
 	}
 	
 	
 	/**
-	 * Adds a new keyword to the comma-separated keyword list for each DSObject.
-	 * The new keyword is only added if the keyword is not already part of the list.
-	 * @category ATTRIBUTES
-	 * 
-	 * @param keywordToAdd
-	 * @return The current DSJQuery object
-	 * 
-	 * @throws DSException
-	 * 
-	 * @see <a href="https://api.jquery.com/addClass/">addClass() | jQuery API</a>
+	 * A file waiting to be uploaded under a Collection.
 	 */
-	public DSJQuery addKeyword (String keywordToAdd) throws DSException {
+	private static final class Upload {
 		
-		if (dsObjects == null)
-			return this;
+		final DSCollection parentCollection;
+		final File file;
 		
-		for (DSObject obj : dsObjects) {
-			
-			if (!hasKeyword(obj, keywordToAdd, false)) {
-				
-				String currentKeywordsString = obj.getKeywords();
-				
-				obj.setKeywords(currentKeywordsString + 
-						(currentKeywordsString.equals("") ? "" : ", ") +
-						keywordToAdd);
-				
-				obj.save();
-			}
+		Upload (DSCollection parentCollection, File file) {
+			this.parentCollection = parentCollection;
+			this.file = file;
 		}
-		
-		return this;
 	}
 	
 	
 	/**
-	 * Removes the first instance of a keyword from the keyword list if it is found. 
-	 * @category ATTRIBUTES
+	 * Uploads many files to DocuShare, each under every Collection in the set.
+	 * Files are uploaded at the same time over pooled DSSessions, up to the parallelism set with {@link #parallel(int)}.
+	 * @category INSERTING
 	 * 
-	 * @param keywordToRemove
-	 * @return The current DSJQuery object
+	 * @param files - The files to upload to DocuShare.
+	 * @return A new DSJQuery object containing all of the created Documents, in the order of the files.
 	 * 
 	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	public DSJQuery insertAllAndGet (Collection<File> files) throws DSException, DSJQueryException, InterruptedException {
+		return insertAllAndGet(files, null);
+	}
+	
+	
+	/**
+	 * Uploads many files to DocuShare, each under every Collection in the set, reporting progress as each file completes.
+	 * Files are uploaded at the same time over pooled DSSessions, up to the parallelism set with {@link #parallel(int)}.
+	 * @category INSERTING
 	 * 
-	 * @see <a href="https://api.jquery.com/removeClass/">removeClass() | jQuery API</a>
+	 * @param files            - The files to upload to DocuShare.
+	 * @param progressListener - Receives the number of files and bytes uploaded so far, and the throughput. May be null.
+	 * @return A new DSJQuery object containing all of the created Documents, in the order of the files.
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
 	 */
-	public DSJQuery removeKeyword (String keywordToRemove) throws DSException {
+	public DSJQuery insertAllAndGet (Collection<File> files, DSJQueryProgress.Listener progressListener) throws DSException, DSJQueryException, InterruptedException {
 		
-		if (dsObjects == null)
-			return this;
+		if (resolve() == null) {
+			return derive(new ArrayList<>(0));
+		}
 		
-		for (DSObject obj : dsObjects) {
-
-			String[] currentKeywords = obj.getKeywords().split(",");
+		List<Upload> uploads = new ArrayList<>();
+		
+		for (File file : files) {
 			
-			for (String keyword : currentKeywords) {
-				if (keyword.trim().equals(keywordToRemove)) {
-					
-					List<String> newKeywordsList = Arrays.asList(currentKeywords);
-					newKeywordsList.remove(keyword);
-					
-					obj.setKeywords(String.join(", ", newKeywordsList));
-					obj.save();
-					
-					break;
+			checkUploadFile(file);
+			
+			for (DSObject potentialParent : dsObjects) {
+				if (potentialParent instanceof DSCollection) {
+					uploads.add(new Upload((DSCollection)potentialParent, file));
 				}
 			}
 		}
 		
-		return this;
+		return derive(upload(uploads, progressListener));
 	}
 	
 	
 	/**
-	 * Creates a new DSJQuery object with the same set of matching objects.
+	 * Copies a local directory, with all of its subdirectories and files, under each Collection in the set.
+	 * Each directory becomes a Collection, created with {@link #insertCollectionAndGet(String)}.
+	 * Files are then uploaded at the same time over pooled DSSessions, up to the parallelism set with {@link #parallel(int)}.
+	 * @category INSERTING
 	 * 
-	 * @see <a href="https://api.jquery.com/clone/">clone() | jQuery API</a>
+	 * @param directory        - The directory to copy to DocuShare.
+	 * @param progressListener - Receives the number of files and bytes uploaded so far, and the throughput. May be null.
+	 * @return A new DSJQuery object containing the created Collections for the directory itself.
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
 	 */
-	public DSJQuery clone() {
+	public DSJQuery insertTreeAndGet (Path directory, DSJQueryProgress.Listener progressListener) throws DSException, DSJQueryException, InterruptedException {
 		
-		try {
-			if (dsObjects == null) {
-				return new DSJQuery();
-			}
-			else {
-				return new DSJQuery(new ArrayList<>(dsObjects));
-			}
-		}
-		catch (Exception e) {
-			// Exceptions are caught to maintain compatibility with Object.clone();
-			e.printStackTrace();
-			return null;
+		if (!Files.isDirectory(directory)) {
+			throw new DSJQueryException("Directory does not exist: " + directory.toAbsolutePath());
 		}
+		
+		DSJQuery rootCollections = insertCollectionAndGet(directory.getFileName().toString());
+		
+		List<Upload> uploads = new ArrayList<>();
+		insertTree(directory, rootCollections, uploads);
+		
+		upload(uploads, progressListener);
+		
+		return rootCollections;
 	}
 	
 	
 	/**
-	 * Links all child elements under the current set of collections.
+	 * Copies a local directory, with all of its subdirectories and files, under each Collection in the set.
 	 * @category INSERTING
 	 * 
-	 * @param newChildren
-	 * @return The current DSJQuery object
+	 * @param directory - The directory to copy to DocuShare.
+	 * @return A new DSJQuery object containing the created Collections for the directory itself.
 	 * 
 	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
 	 * 
-	 * @see <a href="https://api.jquery.com/append/">append() | jQuery API</a>
+	 * @see #insertTreeAndGet(Path, DSJQueryProgress.Listener)
 	 */
-	public DSJQuery append (DSJQuery newChildren) throws DSException {
+	public DSJQuery insertTreeAndGet (Path directory) throws DSException, DSJQueryException, InterruptedException {
+		return insertTreeAndGet(directory, null);
+	}
+	
+	
+	/**
+	 * Creates a Collection for each subdirectory, and lists the files to upload under the given Collections.
+	 */
+	private static void insertTree (Path directory, DSJQuery parentCollections, List<Upload> uploads) throws DSException, DSJQueryException, InterruptedException {
 		
-		if (dsObjects == null) {
-			return this;
-		}
+		List<Path> entries = new ArrayList<>();
 		
-		if (newChildren.length() == 0) {
-			return this;
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			directoryStream.forEach(entries::add);
+		}
+		catch (IOException e) {
+			throw new DSJQueryException("Directory could not be read: " + directory.toAbsolutePath() + " (" + e.getMessage() + ")");
 		}
 		
-		for (DSObject potentialParent : dsObjects) {
+		Collections.sort(entries);
+		
+		for (Path entry : entries) {
 			
-			if (potentialParent instanceof DSCollection) {
-				
-				DSCollection parentCollection = (DSCollection)potentialParent;
-
-				for (DSObject newChild : newChildren.dsObjects) {
-					try {
-						parentCollection.addChild(newChild);
-					}
-					catch (DatabaseException e) {
-						// ignore
-					}
+			if (Files.isDirectory(entry)) {
+				insertTree(entry, parentCollections.insertCollectionAndGet(entry.getFileName().toString()), uploads);
+			}
+			else if (Files.isRegularFile(entry)) {
+				for (DSObject parentCollection : parentCollections.resolve()) {
+					uploads.add(new Upload((DSCollection)parentCollection, entry.toFile()));
 				}
-				
-				parentCollection.save();
 			}
 		}
-		
-		return this;
 	}
-
+	
 	
 	/**
-	 * Uploads a new Document to DocuShare under each Collection in the set.
-	 * @category INSERTING
-	 * 
-	 * @param file - The file to upload to DocuShare.
-	 * @return A new DSJQuery object containing all of the created Documents.
+	 * Runs uploads over pooled DSSessions, with no more uploads in progress at once than the parallelism.
 	 * 
-	 * @throws DSException
-	 * @throws DSJQueryException
-	 * @throws InterruptedException 
+	 * @return The new Documents, in the order of the uploads.
 	 */
-	public DSJQuery insertAndGet (File file) throws DSException, DSJQueryException, InterruptedException {
+	private List<DSObject> upload (List<Upload> uploads, DSJQueryProgress.Listener progressListener) throws DSException, DSJQueryException, InterruptedException {
 		
-		if (dsObjects == null) {
-			return new DSJQuery(new ArrayList<>(0));
-		}
+		long startMillis = System.currentTimeMillis();
 		
-		if (!file.exists()) {
-			throw new DSJQueryException("File does not exist: " + file.getAbsolutePath());
-		}
-		else if (file.isDirectory()) {
-			throw new DSJQueryException("File is a directory: " + file.getAbsolutePath());
+		long totalBytes = 0;
+		
+		for (Upload upload : uploads) {
+			totalBytes += upload.file.length();
 		}
 		
-		DSSession dsSession = null;
+		long finalTotalBytes = totalBytes;
+		long[] completed = new long[2];
 		
 		try {
-			
-			dsSession = DSJQuerySessionHandler.getSession();
-		
-			List<DSObject> newDsObjects = new ArrayList<>(1);
-	
-			for (DSObject potentialParent : dsObjects) {
+			return DSJQueryParallel.map(sessionPool, uploads, parallelism, (dsSession, upload) -> {
 				
-				if (potentialParent instanceof DSCollection) {
-					
-					DSCollection parentCollection = (DSCollection)potentialParent;
-					
-					String title = file.getName();
-					
-					// Document Prototype
-					DSClass docClass = dsSession.getDSClass(DSDocument.classname);
-					DSProperties docProto = docClass.createPrototype();
-					docProto.setPropValue(DSObject.title, title);
-					
-					// Version Prototype
-					DSClass versionClass = dsSession.getDSClass(DSVersion.classname);
-					DSProperties versionProto = versionClass.createPrototype();
-					versionProto.setPropValue(DSObject.title, title);
-					versionProto.setPropValue(DSVersion.revision_comments, "(Initial version)");
-					
-					// Rendition Prototype
-					DSClass renditionClass = dsSession.getDSClass(DSRendition.classname);
-					DSProperties renditionProto = renditionClass.createPrototype();
-					renditionProto.setPropValue(DSRendition.title, title);
-					
-					FileContentElement ce = new FileContentElement(file.getAbsolutePath(), false);
-					
-					DSHandle newDocHandle = dsSession.createDocument(
-							docProto, 
-							versionProto,
-							renditionProto,
-							new DSContentElement[] {ce},
-							null,
-							DSLinkDesc.containment,
-							parentCollection,
-							(DSLoginPrincipal)dsSession.getObject(dsSession.getLoginPrincipalHandle()),
-							null);
-					
-					newDsObjects.add(dsSession.getObject(newDocHandle));
+				DSObject newDocument = createDocument(dsSession, upload.parentCollection, upload.file);
+				
+				if (progressListener != null) {
+					synchronized (completed) {
+						completed[0] += 1;
+						completed[1] += upload.file.length();
+						progressListener.progress(new DSJQueryProgress((int) completed[0], uploads.size(), completed[1], finalTotalBytes, System.currentTimeMillis() - startMillis));
+					}
 				}
-			}
-			
-			return new DSJQuery(newDsObjects);
+				
+				return newDocument;
+			});
 		}
 		finally {
-			DSJQuerySessionHandler.returnSession(dsSession);
+			invalidateCachedResults();
 		}
 	}
 
@@ -1177,15 +2505,17 @@ public class DSJQuery implements Iterable<DSObject> {
 	 */
 	public DSJQuery insertCollectionAndGet (String collectionName) throws DSException, DSJQueryException, InterruptedException {
 		
-		if (dsObjects == null) {
-			return new DSJQuery(new LinkedList<>());
+		if (resolve() == null) {
+			return derive(new ArrayList<>(0));
 		}
 		
 		DSSession dsSession = null;
 		
 		try {
-			dsSession = DSJQuerySessionHandler.getSession();
+			dsSession = sessionPool.getSession();
 		
+			DSJQuerySessionMetadata metadata = sessionPool.getSessionMetadata(dsSession);
+			
 			List<DSObject> newDsObjects = new ArrayList<>(1);
 	
 			for (DSObject potentialParent : dsObjects) {
@@ -1195,26 +2525,123 @@ public class DSJQuery implements Iterable<DSObject> {
 					DSCollection parentCollection = (DSCollection)potentialParent;
 	
 					// Document Prototype
-					DSClass colClass = dsSession.getDSClass(DSCollection.classname);
-					DSProperties colProto = colClass.createPrototype();
+					DSProperties colProto = metadata.createPrototype(dsSession, DSCollection.classname);
 					colProto.setPropValue(DSObject.title, collectionName);
 	
 					DSHandle newDocHandle = dsSession.createObject(
 							colProto, 
 							DSLinkDesc.containment,
 							parentCollection,
-							(DSLoginPrincipal)dsSession.getObject(dsSession.getLoginPrincipalHandle()),
+							metadata.getLoginPrincipal(dsSession),
 							null);
 					
 					newDsObjects.add(dsSession.getObject(newDocHandle));
 				}
 			}
 			
-			return new DSJQuery(newDsObjects);
+			invalidateCachedResults();
+			
+			return derive(newDsObjects);
 		}
 		finally {
-			DSJQuerySessionHandler.returnSession(dsSession);
+			sessionPool.returnSession(dsSession);
+		}
+	}
+	
+	
+	/**
+	 * Opens the content of the first Document in the set for reading.
+	 * When the session pool has a content cache, set up with {@link DSJQuerySessionPool#contentCacheSetup(Path, long)},
+	 * unchanged content is read from the local cache rather than downloaded again.
+	 * Otherwise, the content is downloaded to a temporary file, deleted when the channel is closed.
+	 * @category CORE
+	 * 
+	 * @return A read-only channel over the Document's first content element, or null if there are no Documents in the set.
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 */
+	public SeekableByteChannel openContent () throws DSException, DSJQueryException {
+		
+		if (resolve() == null) {
+			return null;
+		}
+		
+		for (DSObject obj : dsObjects) {
+			
+			if (obj instanceof DSDocument) {
+				
+				DSJQueryContentCache contentCache = sessionPool.getContentCache();
+				
+				try {
+					return (contentCache == null ? DSJQueryContentCache.openUncached((DSDocument)obj) : contentCache.open((DSDocument)obj));
+				}
+				catch (IOException e) {
+					throw new DSJQueryException("Content could not be read: " + obj.getHandle() + " (" + e.getMessage() + ")");
+				}
+			}
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Downloads the content of each Document in the set into a local directory.
+	 * Documents are downloaded at the same time over pooled DSSessions, up to the parallelism set with {@link #parallel(int)}.
+	 * Files are named by handle and title, i.e. "Document-111_Logo.png".
+	 * Files that already exist with the Document's size are skipped, so an interrupted export can be run again.
+	 * Objects that are not Documents are ignored.
+	 * @category CORE
+	 * 
+	 * @param targetDirectory - The directory to write to. Created if it does not exist.
+	 * @return The outcome for each Document
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	public DSJQueryReport exportContent (Path targetDirectory) throws DSException, DSJQueryException, InterruptedException {
+		
+		long startMillis = System.currentTimeMillis();
+		
+		if (resolve() == null) {
+			return new DSJQueryReport(new ArrayList<>(0), 0);
+		}
+		
+		try {
+			Files.createDirectories(targetDirectory);
+		}
+		catch (IOException e) {
+			throw new DSJQueryException("Directory could not be created: " + targetDirectory.toAbsolutePath() + " (" + e.getMessage() + ")");
+		}
+		
+		List<DSObject> documents = new ArrayList<>();
+		
+		for (DSObject obj : dsObjects) {
+			if (obj instanceof DSDocument) {
+				documents.add(obj);
+			}
+		}
+		
+		List<Exception> errors = DSJQueryParallel.map(sessionPool, documents, parallelism, (dsSession, document) -> {
+			try {
+				// Retrieved again, so each download streams over the worker's own session
+				DSJQueryContentExport.export((DSDocument)dsSession.getObject(document.getHandle()), targetDirectory);
+				return null;
+			}
+			catch (DSException | IOException | RuntimeException e) {
+				return e;
+			}
+		});
+		
+		List<DSJQueryReport.Result> results = new ArrayList<>(documents.size());
+		
+		for (int index = 0; index < documents.size(); index += 1) {
+			results.add(new DSJQueryReport.Result(documents.get(index).getHandle().toString(), errors.get(index)));
 		}
+		
+		return new DSJQueryReport(results, System.currentTimeMillis() - startMillis);
 	}
 	
 	
@@ -1227,26 +2654,51 @@ public class DSJQuery implements Iterable<DSObject> {
 	 */
 	public void remove () throws DSException, InterruptedException {
 		
-		if (dsObjects == null)
+		if (resolve() == null)
 			return;
 		
 		DSSession dsSession = null;
 		
 		try {
-			dsSession = DSJQuerySessionHandler.getSession();
+			dsSession = sessionPool.getSession();
 			
 			for (DSObject obj : dsObjects) {
 				dsSession.deleteObject(obj.getHandle(), new DSSelectSet());
+				invalidateCached(obj);
 			}
 		}
 		finally {
 			if (dsSession != null) {
-				DSJQuerySessionHandler.returnSession(dsSession);
+				sessionPool.returnSession(dsSession);
 			}
 		}
 	}
 	
 	
+	/**
+	 * Removes all objects in the DSJQuery object, spread over pooled DSSessions,
+	 * up to the parallelism set with {@link #parallel(int)}.
+	 * Unlike {@link #remove()}, a failed removal does not stop the others.
+	 * @category REMOVING
+	 * 
+	 * @return The outcome for each object
+	 * 
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	public DSJQueryReport removeAndReport () throws DSException, DSJQueryException, InterruptedException {
+		
+		long startMillis = System.currentTimeMillis();
+		
+		if (resolve() == null) {
+			return new DSJQueryReport(new ArrayList<>(0), 0);
+		}
+		
+		return changeEach(dsObjects, startMillis, (dsSession, obj) -> dsSession.deleteObject(obj.getHandle(), new DSSelectSet()));
+	}
+	
+	
 	/**
 	 * Returns the total number of DSObjects in the DSJQuery object.
 	 * 
@@ -1255,7 +2707,7 @@ public class DSJQuery implements Iterable<DSObject> {
 	 * @see <a href="https://api.jquery.com/length/">length | jQuery API</a>
 	 */
 	public int length() {
-		if (dsObjects == null) {
+		if (resolveUnchecked() == null) {
 			return 0;
 		}
 		
@@ -1271,7 +2723,7 @@ public class DSJQuery implements Iterable<DSObject> {
 	 * @see <a href="https://api.jquery.com/toArray/">toArray() | jQuery API</a>
 	 */
 	public List<DSObject> toList() {
-		return dsObjects;
+		return resolveUnchecked();
 	}
 		
 	
@@ -1284,7 +2736,7 @@ public class DSJQuery implements Iterable<DSObject> {
 	 */
 	public DSJQuery print() throws DSException {
 		
-		for (DSObject obj : dsObjects) {
+		for (DSObject obj : resolve()) {
 			System.out.println (obj.getHandle().toString() + " - " + obj.getTitle());
 		}
 		System.out.println();
@@ -1293,8 +2745,50 @@ public class DSJQuery implements Iterable<DSObject> {
 	}
 
 	
+	/**
+	 * Returns a sequential Stream of the DSObjects.
+	 * If the objects come from a search that has not run yet, and they do not need to be sorted,
+	 * the objects are retrieved from DocuShare one at a time as the stream is consumed,
+	 * and are not kept by the DSJQuery object.
+	 * A pooled DSSession is held from the first object until the stream runs out or is closed,
+	 * so use the stream in a try-with-resources block.
+	 * 
+	 * <pre>
+	 * try (Stream&lt;DSObject&gt; documents = new DSJQuery(".Document").stream()) {
+	 *     documents.forEach(...);
+	 * }
+	 * </pre>
+	 * 
+	 * @return A Stream of DSObjects
+	 * 
+	 * @throws DSJQueryDeferredException if the search fails while the stream is consumed.
+	 */
+	public Stream<DSObject> stream() {
+		
+		DSJQueryPlan plan;
+		
+		synchronized (this) {
+			plan = pendingPlan;
+		}
+		
+		if (plan == null || !plan.isStreamable()) {
+			
+			List<DSObject> objects = resolveUnchecked();
+			
+			if (objects == null) {
+				return Stream.empty();
+			}
+			return objects.stream();
+		}
+		
+		DSJQueryStreamSpliterator spliterator = new DSJQueryStreamSpliterator(plan, sessionPool);
+		
+		return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+	}
+	
+	
 	public Iterator<DSObject> iterator() {
-		if (dsObjects == null) {
+		if (resolveUnchecked() == null) {
 			return new ArrayList<DSObject>(0).iterator();
 		}
 		
@@ -0,0 +1,186 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSObject;
+
+
+/**
+ * Attribute and keyword changes recorded by {@link DSJQuery#batch()},
+ * kept per object so each object is saved once when the batch is committed.
+ */
+final class DSJQueryBatch {
+
+	/**
+	 * The changes recorded for one object.
+	 */
+	static final class PendingChange {
+
+		final DSObject dsObject;
+
+		/**
+		 * New attribute values. Setting an attribute twice keeps the last value.
+		 */
+		private final LinkedHashMap<String, Object> properties = new LinkedHashMap<>();
+
+		/**
+		 * Keywords to add or remove, in the order they were recorded.
+		 */
+		private final List<KeywordChange> keywordChanges = new ArrayList<>();
+
+
+		private PendingChange (DSObject dsObject) {
+			this.dsObject = dsObject;
+		}
+
+
+		/**
+		 * Applies the changes to a copy of the object, then saves it.
+		 *
+		 * @param targetDsObject - The same object, retrieved with the DSSession to save it with
+		 *
+		 * @throws DSException
+		 */
+		void apply (DSObject targetDsObject) throws DSException {
+
+			for (Map.Entry<String, Object> property : properties.entrySet()) {
+				targetDsObject.set(property.getKey(), property.getValue());
+			}
+
+			if (!keywordChanges.isEmpty()) {
+
+				String currentKeywords = targetDsObject.getKeywords();
+				String newKeywords = currentKeywords;
+
+				for (KeywordChange keywordChange : keywordChanges) {
+					newKeywords = (keywordChange.add ? withKeyword(newKeywords, keywordChange.keyword) : withoutKeyword(newKeywords, keywordChange.keyword));
+				}
+
+				if (!newKeywords.equals(currentKeywords)) {
+					targetDsObject.setKeywords(newKeywords);
+				}
+			}
+
+			targetDsObject.save();
+		}
+	}
+
+
+	private static final class KeywordChange {
+
+		final boolean add;
+		final String keyword;
+
+		KeywordChange (boolean add, String keyword) {
+			this.add = add;
+			this.keyword = keyword;
+		}
+	}
+
+
+	/**
+	 * Changes by handle, in the order the objects were first changed.
+	 */
+	private final LinkedHashMap<String, PendingChange> pendingChanges = new LinkedHashMap<>();
+
+
+	void setProperty (DSObject dsObject, String propertyName, Object value) {
+		synchronized (pendingChanges) {
+			pendingChange(dsObject).properties.put(propertyName, value);
+		}
+	}
+
+
+	void addKeyword (DSObject dsObject, String keyword) {
+		synchronized (pendingChanges) {
+			pendingChange(dsObject).keywordChanges.add(new KeywordChange(true, keyword));
+		}
+	}
+
+
+	void removeKeyword (DSObject dsObject, String keyword) {
+		synchronized (pendingChanges) {
+			pendingChange(dsObject).keywordChanges.add(new KeywordChange(false, keyword));
+		}
+	}
+
+
+	private PendingChange pendingChange (DSObject dsObject) {
+		return pendingChanges.computeIfAbsent(dsObject.getHandle().toString(), handle -> new PendingChange(dsObject));
+	}
+
+
+	/**
+	 * Takes all recorded changes, leaving the batch empty for new changes.
+	 *
+	 * @return The changes, one per object
+	 */
+	List<PendingChange> drain () {
+		synchronized (pendingChanges) {
+			List<PendingChange> drainedChanges = new ArrayList<>(pendingChanges.values());
+			pendingChanges.clear();
+			return drainedChanges;
+		}
+	}
+
+
+	/**
+	 * @return The number of objects with recorded changes.
+	 */
+	int size () {
+		synchronized (pendingChanges) {
+			return pendingChanges.size();
+		}
+	}
+
+
+	/**
+	 * Adds a keyword to a comma-separated keyword list, unless it is already in the list.
+	 *
+	 * @param keywords - i.e. "Logo, Web"
+	 * @param keyword  - i.e. "Print"
+	 * @return The new keyword list, i.e. "Logo, Web, Print"
+	 */
+	static String withKeyword (String keywords, String keyword) {
+
+		for (String currentKeyword : keywords.split(",")) {
+			if (currentKeyword.trim().equals(keyword)) {
+				return keywords;
+			}
+		}
+
+		return keywords + (keywords.trim().isEmpty() ? "" : ", ") + keyword;
+	}
+
+
+	/**
+	 * Removes the first instance of a keyword from a comma-separated keyword list.
+	 *
+	 * @param keywords - i.e. "Logo, Web, Print"
+	 * @param keyword  - i.e. "Web"
+	 * @return The new keyword list, i.e. "Logo, Print", or the same list if the keyword was not in it.
+	 */
+	static String withoutKeyword (String keywords, String keyword) {
+
+		List<String> newKeywords = new ArrayList<>();
+		boolean removed = false;
+
+		for (String currentKeyword : keywords.split(",")) {
+
+			String trimmedKeyword = currentKeyword.trim();
+
+			if (!removed && trimmedKeyword.equals(keyword)) {
+				removed = true;
+			}
+			else if (!trimmedKeyword.isEmpty()) {
+				newKeywords.add(trimmedKeyword);
+			}
+		}
+
+		return (removed ? String.join(", ", newKeywords) : keywords);
+	}
+}
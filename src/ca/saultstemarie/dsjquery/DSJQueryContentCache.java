@@ -0,0 +1,338 @@
+package ca.saultstemarie.dsjquery;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.xerox.docushare.DSContentElement;
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.object.DSDocument;
+
+
+/**
+ * <b>DSJQuery Content Cache</b>
+ * Keeps downloaded Document content in a local directory, so reading the same content again,
+ * with {@link DSJQuery#openContent()}, does not go to the DocuShare server.
+ * <br>
+ * Content is kept by handle and modified date, so a changed Document is downloaded again,
+ * and its older content is removed.
+ * Once the cached files are larger than the size limit, the least recently read files are removed.
+ * Cached files are read through memory mapping.
+ * Files left in the directory by an earlier run are reused.
+ * Only files named like cached content, i.e. "Document-111_1700000000000", are ever read or removed,
+ * so other files in the directory are left alone.
+ * <br>
+ * Enable with {@link DSJQuerySessionPool#contentCacheSetup(Path, long)}.
+ */
+public class DSJQueryContentCache {
+
+	private static final String MODIFIED_DATE = "modified_date";
+
+	/**
+	 * Cached content, named by handle and modified date, i.e. "Document-111_1700000000000".
+	 */
+	private static final Pattern CACHED_FILE_NAME = Pattern.compile("[A-Za-z][A-Za-z0-9]*-\\d+_\\d+");
+
+	/**
+	 * Unfinished downloads of cached content, i.e. "Document-111_1700000000000.4417308252.part".
+	 */
+	private static final Pattern PART_FILE_NAME = Pattern.compile(CACHED_FILE_NAME.pattern() + "\\.\\d+" + Pattern.quote(DSJQueryContentExport.PART_SUFFIX));
+
+	private final Path directory;
+	private final long maxBytes;
+
+	/**
+	 * File sizes by file name, in order of use, so the least recently read file is first.
+	 */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private long totalBytes = 0;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+
+	DSJQueryContentCache (Path directory, long maxBytes) throws IOException {
+
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		Files.createDirectories(directory);
+		loadEntries();
+	}
+
+
+	/**
+	 * Indexes the files left by an earlier run, oldest first, and removes unfinished downloads.
+	 * Files not named by the cache are skipped.
+	 */
+	private void loadEntries () throws IOException {
+
+		List<Path> files = new ArrayList<>();
+
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			for (Path file : directoryStream) {
+				String fileName = file.getFileName().toString();
+
+				if (PART_FILE_NAME.matcher(fileName).matches()) {
+					Files.deleteIfExists(file);
+				}
+				else if (CACHED_FILE_NAME.matcher(fileName).matches() && Files.isRegularFile(file)) {
+					files.add(file);
+				}
+			}
+		}
+
+		files.sort((file1, file2) -> Long.compare(file1.toFile().lastModified(), file2.toFile().lastModified()));
+
+		synchronized (entries) {
+			for (Path file : files) {
+				long size = Files.size(file);
+				entries.put(file.getFileName().toString(), size);
+				totalBytes += size;
+			}
+
+			evict(null);
+		}
+	}
+
+
+	/**
+	 * Opens a Document's first content element, downloading it if it is not cached.
+	 *
+	 * @param dsDocument
+	 * @return A read-only channel over the content
+	 *
+	 * @throws DSException
+	 * @throws IOException
+	 */
+	SeekableByteChannel open (DSDocument dsDocument) throws DSException, IOException {
+
+		String handle = dsDocument.getHandle().toString();
+		Object modifiedDate = dsDocument.get(MODIFIED_DATE);
+
+		if (!(modifiedDate instanceof Date)) {
+			// Without a version, cached content could never be known to be current
+			return openUncached(dsDocument);
+		}
+
+		String fileName = handle + "_" + ((Date) modifiedDate).getTime();
+		Path file = directory.resolve(fileName);
+
+		synchronized (entries) {
+
+			Long cachedSize = entries.get(fileName);
+
+			if (cachedSize != null) {
+				try {
+					SeekableByteChannel channel = DSJQueryMappedChannel.open(file);
+					hitCount.incrementAndGet();
+					return channel;
+				}
+				catch (NoSuchFileException e) {
+					// Deleted outside of the cache, so download it again
+					entries.remove(fileName);
+					totalBytes -= cachedSize;
+				}
+			}
+		}
+
+		missCount.incrementAndGet();
+
+		long size = DSJQueryContentExport.write(firstContentElement(dsDocument), file);
+
+		synchronized (entries) {
+
+			Long replacedSize = entries.put(fileName, size);
+
+			if (replacedSize != null) {
+				totalBytes -= replacedSize;
+			}
+
+			totalBytes += size;
+
+			removeOlderVersions(handle, fileName);
+			evict(fileName);
+
+			return DSJQueryMappedChannel.open(file);
+		}
+	}
+
+
+	/**
+	 * Downloads a Document's first content element to a temporary file, deleted when the channel is closed.
+	 *
+	 * @param dsDocument
+	 * @return A read-only channel over the content
+	 *
+	 * @throws DSException
+	 * @throws IOException
+	 */
+	static SeekableByteChannel openUncached (DSDocument dsDocument) throws DSException, IOException {
+
+		Path file = Files.createTempFile("dsjquery-", ".content");
+
+		try {
+			DSJQueryContentExport.write(firstContentElement(dsDocument), file);
+			return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+		}
+		catch (DSException | IOException | RuntimeException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+	}
+
+
+	private static DSContentElement firstContentElement (DSDocument dsDocument) throws DSException, IOException {
+
+		DSContentElement[] contentElements = dsDocument.getContentElements();
+
+		if (contentElements == null || contentElements.length == 0) {
+			throw new IOException("Document has no content: " + dsDocument.getHandle());
+		}
+
+		return contentElements[0];
+	}
+
+
+	/**
+	 * Removes the content of earlier versions of a Document, once a newer version is cached.
+	 */
+	private void removeOlderVersions (String handle, String currentFileName) {
+
+		Iterator<Map.Entry<String, Long>> entryIterator = entries.entrySet().iterator();
+
+		while (entryIterator.hasNext()) {
+
+			Map.Entry<String, Long> entry = entryIterator.next();
+
+			if (entry.getKey().startsWith(handle + "_") && !entry.getKey().equals(currentFileName)) {
+				entryIterator.remove();
+				delete(entry);
+			}
+		}
+	}
+
+
+	/**
+	 * Removes the least recently read files until the cache is within its size limit.
+	 *
+	 * @param keptFileName - A file to keep, even if it is larger than the limit on its own, or null
+	 */
+	private void evict (String keptFileName) {
+
+		Iterator<Map.Entry<String, Long>> entryIterator = entries.entrySet().iterator();
+
+		while (totalBytes > maxBytes && entryIterator.hasNext()) {
+
+			Map.Entry<String, Long> entry = entryIterator.next();
+
+			if (!entry.getKey().equals(keptFileName)) {
+				entryIterator.remove();
+				delete(entry);
+			}
+		}
+	}
+
+
+	private void delete (Map.Entry<String, Long> entry) {
+
+		totalBytes -= entry.getValue();
+
+		try {
+			Files.deleteIfExists(directory.resolve(entry.getKey()));
+		}
+		catch (IOException e) {
+			// The file may still be mapped by an open channel on some systems, and is replaced when next downloaded
+		}
+	}
+
+
+	/**
+	 * Removes all cached content.
+	 * @category SETUP
+	 */
+	public void invalidateAll () {
+
+		synchronized (entries) {
+
+			Iterator<Map.Entry<String, Long>> entryIterator = entries.entrySet().iterator();
+
+			while (entryIterator.hasNext()) {
+				Map.Entry<String, Long> entry = entryIterator.next();
+				entryIterator.remove();
+				delete(entry);
+			}
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of files currently cached.
+	 */
+	public int size () {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The size of all files currently cached.
+	 */
+	public long getTotalBytes () {
+		synchronized (entries) {
+			return totalBytes;
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The most bytes kept in the cache.
+	 */
+	public long getMaxBytes () {
+		return maxBytes;
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The directory the cached files are kept in.
+	 */
+	public Path getDirectory () {
+		return directory;
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of times content was read from the cache.
+	 */
+	public long getHitCount () {
+		return hitCount.get();
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of times content was downloaded from the server.
+	 */
+	public long getMissCount () {
+		return missCount.get();
+	}
+}
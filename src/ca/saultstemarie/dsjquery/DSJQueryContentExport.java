@@ -0,0 +1,196 @@
+package ca.saultstemarie.dsjquery;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.xerox.docushare.DSContentElement;
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSObject;
+import com.xerox.docushare.object.DSDocument;
+
+
+/**
+ * Writes the content of Documents to local files, for {@link DSJQuery#exportContent(Path)}.
+ * <br>
+ * Content is written to a ".part" file, which is renamed once it is complete,
+ * so a file with the final name is always a finished download.
+ * Files that already exist with the Document's size are skipped, so an interrupted export can be run again.
+ */
+final class DSJQueryContentExport {
+
+	/**
+	 * The most bytes read from the server at a time.
+	 */
+	static final int CHUNK_SIZE = 256 * 1024;
+
+	/**
+	 * Each worker thread reuses one read buffer and one direct write buffer for all of its Documents.
+	 */
+	private static final ThreadLocal<byte[]> READ_BUFFER = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+	private static final ThreadLocal<ByteBuffer> WRITE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+
+	static final String PART_SUFFIX = ".part";
+
+
+	private DSJQueryContentExport () {
+	}
+
+
+	/**
+	 * Writes each of a Document's content elements to a file in the target directory.
+	 * Files are named by handle and title, i.e. "Document-111_Logo.png".
+	 * Documents with more than one content element get numbered files, i.e. "Document-111_2_Logo.png".
+	 *
+	 * @param dsDocument
+	 * @param targetDirectory - An existing directory
+	 * @return The number of bytes written, 0 if the existing files were kept.
+	 *
+	 * @throws DSException
+	 * @throws IOException
+	 */
+	static long export (DSDocument dsDocument, Path targetDirectory) throws DSException, IOException {
+
+		DSContentElement[] contentElements = dsDocument.getContentElements();
+
+		String baseName = dsDocument.getHandle().toString() + "_" + safeFileName(dsDocument.getTitle());
+		long expectedSize = expectedSize(dsDocument, contentElements.length);
+
+		long writtenBytes = 0;
+
+		for (int index = 0; index < contentElements.length; index += 1) {
+
+			String fileName = (index == 0 ? baseName : dsDocument.getHandle().toString() + "_" + (index + 1) + "_" + safeFileName(dsDocument.getTitle()));
+			Path targetFile = targetDirectory.resolve(fileName);
+
+			if (isComplete(targetFile, expectedSize)) {
+				continue;
+			}
+
+			writtenBytes += write(contentElements[index], targetFile);
+		}
+
+		return writtenBytes;
+	}
+
+
+	/**
+	 * The Document's size, when it describes its only content element, or -1 if unknown.
+	 */
+	private static long expectedSize (DSObject dsDocument, int contentElementCount) {
+
+		if (contentElementCount != 1) {
+			return -1;
+		}
+
+		try {
+			Object size = dsDocument.get("size");
+			return (size instanceof Number ? ((Number) size).longValue() : -1);
+		}
+		catch (DSException e) {
+			return -1;
+		}
+	}
+
+
+	/**
+	 * Tests if a file was already exported, by its size when the expected size is known.
+	 * Only complete downloads are given their final name, so an existing file is otherwise taken as complete.
+	 */
+	private static boolean isComplete (Path targetFile, long expectedSize) throws IOException {
+
+		if (!Files.isRegularFile(targetFile)) {
+			return false;
+		}
+
+		return expectedSize < 0 || Files.size(targetFile) == expectedSize;
+	}
+
+
+	/**
+	 * Downloads a content element to a file, replacing the file only once the download is complete.
+	 * Each download uses its own ".part" file, so the same file may be downloaded by two threads at once.
+	 *
+	 * @param contentElement
+	 * @param targetFile
+	 * @return The number of bytes written
+	 *
+	 * @throws DSException
+	 * @throws IOException
+	 */
+	static long write (DSContentElement contentElement, Path targetFile) throws DSException, IOException {
+
+		byte[] readBuffer = READ_BUFFER.get();
+		ByteBuffer writeBuffer = WRITE_BUFFER.get();
+
+		Path partFile = createPartFile(targetFile);
+		long writtenBytes = 0;
+
+		try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.WRITE)) {
+
+			contentElement.open();
+
+			int readCount;
+
+			while ((readCount = contentElement.read(readBuffer)) > 0) {
+
+				writeBuffer.clear();
+				writeBuffer.put(readBuffer, 0, readCount);
+				writeBuffer.flip();
+
+				while (writeBuffer.hasRemaining()) {
+					writtenBytes += channel.write(writeBuffer);
+				}
+			}
+		}
+		catch (DSException | IOException | RuntimeException e) {
+			Files.deleteIfExists(partFile);
+			throw e;
+		}
+		finally {
+			contentElement.close();
+		}
+
+		Files.move(partFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		return writtenBytes;
+	}
+
+
+	/**
+	 * Creates an empty ".part" file beside the target file, with a name no other download is using,
+	 * i.e. "Document-111_Logo.png.4417308252.part".
+	 * The file gets the directory's default permissions, which it keeps once renamed.
+	 */
+	private static Path createPartFile (Path targetFile) throws IOException {
+
+		while (true) {
+
+			String uniqueName = targetFile.getFileName().toString() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + PART_SUFFIX;
+
+			try {
+				return Files.createFile(targetFile.resolveSibling(uniqueName));
+			}
+			catch (FileAlreadyExistsException e) {
+				// taken by another download, so try another name
+			}
+		}
+	}
+
+
+	/**
+	 * Replaces characters that are not allowed in file names on common file systems.
+	 */
+	static String safeFileName (String title) {
+
+		String fileName = (title == null ? "" : title.trim()).replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_");
+
+		return (fileName.isEmpty() ? "untitled" : fileName);
+	}
+}
@@ -25,5 +25,41 @@ public class DSJQueryException extends Exception {
 		public DSJQuerySelectorException(String selector) {
 			super(selector);
 		}
+		
+		public DSJQuerySelectorException(String selector, String reason) {
+			super(reason + ": " + selector);
+		}
+	}
+	
+	
+	/**
+	 * An unchecked exception thrown when no pooled DocuShare session becomes available
+	 * within the configured acquire timeout.
+	 * Unchecked, so methods that already got sessions before pooling keep their signatures.
+	 *
+	 */
+	public static class DSJQuerySessionTimeoutException extends RuntimeException {
+
+		private static final long serialVersionUID = 7720354841239672091L;
+
+		public DSJQuerySessionTimeoutException(String message) {
+			super(message);
+		}
+	}
+	
+	
+	/**
+	 * An unchecked exception thrown when a deferred search fails
+	 * inside a method that cannot throw checked exceptions, like {@code length()} or {@code iterator()}.
+	 * The original DSException, DSJQueryException or InterruptedException is available as the cause.
+	 *
+	 */
+	public static class DSJQueryDeferredException extends RuntimeException {
+
+		private static final long serialVersionUID = -2417853619045128460L;
+
+		public DSJQueryDeferredException(Throwable cause) {
+			super(cause);
+		}
 	}
 }
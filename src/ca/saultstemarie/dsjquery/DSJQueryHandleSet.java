@@ -0,0 +1,82 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.xerox.docushare.DSObject;
+
+
+/**
+ * A set of objects, compared by handle.
+ * <br>
+ * The same object may be retrieved more than once, i.e. from two Collections it is linked under,
+ * and the copies are different Java objects, so objects are only known to be the same by their handles.
+ * Adding and testing objects takes constant time, so sets of hundreds of thousands of objects are compared in a single pass.
+ */
+final class DSJQueryHandleSet {
+
+	private final Set<String> handles;
+
+
+	DSJQueryHandleSet () {
+		this.handles = new HashSet<>();
+	}
+
+
+	/**
+	 * @param dsObjects - The objects to start with, may be null for none
+	 */
+	DSJQueryHandleSet (List<DSObject> dsObjects) {
+
+		this.handles = new HashSet<>(dsObjects == null ? 16 : Math.max(16, (int) (dsObjects.size() / 0.75f) + 1));
+
+		if (dsObjects != null) {
+			for (DSObject dsObject : dsObjects) {
+				add(dsObject);
+			}
+		}
+	}
+
+
+	/**
+	 * Adds an object to the set.
+	 *
+	 * @param dsObject
+	 * @return TRUE if the object was not already in the set.
+	 */
+	boolean add (DSObject dsObject) {
+		return handles.add(dsObject.getHandle().toString());
+	}
+
+
+	/**
+	 * @param dsObject
+	 * @return TRUE if an object with the same handle is in the set.
+	 */
+	boolean contains (DSObject dsObject) {
+		return handles.contains(dsObject.getHandle().toString());
+	}
+
+
+	/**
+	 * Removes repeated objects from a list, keeping the first of each.
+	 *
+	 * @param dsObjects
+	 * @return A new list, in the same order
+	 */
+	static List<DSObject> unique (List<DSObject> dsObjects) {
+
+		DSJQueryHandleSet seen = new DSJQueryHandleSet();
+		List<DSObject> uniqueDsObjects = new ArrayList<>(dsObjects.size());
+
+		for (DSObject dsObject : dsObjects) {
+			if (seen.add(dsObject)) {
+				uniqueDsObjects.add(dsObject);
+			}
+		}
+
+		return uniqueDsObjects;
+	}
+}
@@ -0,0 +1,245 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSHandle;
+import com.xerox.docushare.DSObject;
+import com.xerox.docushare.DSObjectIterator;
+import com.xerox.docushare.DSSession;
+
+
+/**
+ * <b>DSJQuery Hierarchy Cache</b>
+ * Keeps the parent handles of recently visited objects, so walking up the hierarchy with
+ * {@link DSJQuery#parents()}, {@link DSJQuery#parentsUntil(String)} and {@link DSJQuery#closest(String)}
+ * only asks the DocuShare server for each object's parents once.
+ * Documents in the same Collection share their ancestors, so most of a walk is answered from memory.
+ * <br>
+ * Only handles are kept, never the objects themselves, so nothing in the cache depends on a DSSession staying open.
+ * The parent objects are retrieved by handle with the session walking up the hierarchy.
+ * <br>
+ * Each object's parents expire on their own after a time to live, and are retrieved again the next time they are needed,
+ * so the cache is refreshed a piece at a time rather than all at once.
+ * Objects linked or removed through DSJQuery, with {@code append()} or {@code remove()}, are removed from the cache.
+ * <br>
+ * Enable with {@link DSJQuerySessionPool#hierarchyCacheSetup(int, long)}.
+ */
+public class DSJQueryHierarchyCache {
+
+	/**
+	 * The handles of an object's parents.
+	 */
+	private static final class Node {
+
+		final List<String> parentHandles;
+		final long expiresAtMillis;
+
+		Node (List<String> parentHandles, long expiresAtMillis) {
+			this.parentHandles = parentHandles;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+	}
+
+
+	/**
+	 * One walk up the hierarchy, keeping the objects it retrieves so each is only retrieved once during the walk.
+	 * The objects are dropped with the walk, along with the DSSessions they were retrieved with.
+	 */
+	final class Walk {
+
+		private final Map<String, DSObject> walkedObjects = new ConcurrentHashMap<>();
+
+
+		/**
+		 * Gets an object's parent Collections, using the cached parent handles when available.
+		 *
+		 * @param dsSession - The session to retrieve parents by handle with, held by the caller for the whole walk
+		 * @param dsObject
+		 * @return The parents, or an empty list for the root Collection
+		 *
+		 * @throws DSException
+		 */
+		List<DSObject> getParents (DSSession dsSession, DSObject dsObject) throws DSException {
+
+			String handle = dsObject.getHandle().toString();
+			List<String> parentHandles = getParentHandles(handle);
+
+			if (parentHandles != null) {
+
+				List<DSObject> parents = new ArrayList<>(parentHandles.size());
+
+				for (String parentHandle : parentHandles) {
+
+					DSObject parent = walkedObjects.get(parentHandle);
+
+					if (parent == null) {
+						parent = dsSession.getObject(new DSHandle(parentHandle));
+						walkedObjects.put(parentHandle, parent);
+					}
+
+					parents.add(parent);
+				}
+
+				return parents;
+			}
+
+			List<DSObject> parents = new ArrayList<>();
+			parentHandles = new ArrayList<>();
+
+			DSObjectIterator iterator = dsObject.getParents();
+
+			while (iterator.hasNext()) {
+
+				DSObject parent = iterator.nextObject();
+				String parentHandle = parent.getHandle().toString();
+
+				parents.add(parent);
+				parentHandles.add(parentHandle);
+
+				walkedObjects.putIfAbsent(parentHandle, parent);
+			}
+
+			putParentHandles(handle, parentHandles);
+
+			return parents;
+		}
+	}
+
+
+	private final int  maxEntries;
+	private final long timeToLiveMillis;
+
+	/**
+	 * Parent handles by handle, in order of use, so the least recently used object is first.
+	 */
+	private final LinkedHashMap<String, Node> nodes;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+
+	/**
+	 * @param maxEntries       - The most objects to keep, or 0 for no limit
+	 * @param timeToLiveMillis - How long an object's parents are kept after they are retrieved
+	 */
+	DSJQueryHierarchyCache (int maxEntries, long timeToLiveMillis) {
+
+		this.maxEntries = maxEntries;
+		this.timeToLiveMillis = timeToLiveMillis;
+
+		this.nodes = new LinkedHashMap<String, Node>(64, 0.75f, true) {
+
+			private static final long serialVersionUID = -3660587265409815220L;
+
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<String, Node> eldest) {
+				return DSJQueryHierarchyCache.this.maxEntries > 0 && size() > DSJQueryHierarchyCache.this.maxEntries;
+			}
+		};
+	}
+
+
+	/**
+	 * Starts a walk up the hierarchy that uses this cache.
+	 *
+	 * @return A new walk
+	 */
+	Walk walk () {
+		return new Walk();
+	}
+
+
+	/**
+	 * @param handle
+	 * @return The object's parent handles, or null if they are not cached or have expired.
+	 */
+	private List<String> getParentHandles (String handle) {
+
+		synchronized (nodes) {
+
+			Node node = nodes.get(handle);
+
+			if (node != null && node.expiresAtMillis > System.currentTimeMillis()) {
+				hitCount.incrementAndGet();
+				return node.parentHandles;
+			}
+
+			if (node != null) {
+				nodes.remove(handle);
+			}
+		}
+
+		missCount.incrementAndGet();
+		return null;
+	}
+
+
+	private void putParentHandles (String handle, List<String> parentHandles) {
+
+		long nowMillis = System.currentTimeMillis();
+		long expiresAtMillis = (timeToLiveMillis > Long.MAX_VALUE - nowMillis ? Long.MAX_VALUE : nowMillis + timeToLiveMillis);
+
+		synchronized (nodes) {
+			nodes.put(handle, new Node(parentHandles, expiresAtMillis));
+		}
+	}
+
+
+	/**
+	 * Removes an object from the cache, so its parents are retrieved again the next time they are needed.
+	 * @category SETUP
+	 *
+	 * @param handle - i.e. "Document-111"
+	 */
+	public void invalidate (String handle) {
+		synchronized (nodes) {
+			nodes.remove(handle);
+		}
+	}
+
+
+	/**
+	 * Removes all objects from the cache.
+	 * @category SETUP
+	 */
+	public void invalidateAll () {
+		synchronized (nodes) {
+			nodes.clear();
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of objects with parents currently cached.
+	 */
+	public int size () {
+		synchronized (nodes) {
+			return nodes.size();
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of times an object's parents were found in the cache.
+	 */
+	public long getHitCount () {
+		return hitCount.get();
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of times an object's parents were retrieved from the server.
+	 */
+	public long getMissCount () {
+		return missCount.get();
+	}
+}
@@ -0,0 +1,133 @@
+package ca.saultstemarie.dsjquery;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * A read-only channel over a file mapped into memory,
+ * so reads are served from the operating system's page cache without a system call each time.
+ */
+final class DSJQueryMappedChannel implements SeekableByteChannel {
+
+	private final ByteBuffer content;
+	private boolean open = true;
+
+
+	private DSJQueryMappedChannel (MappedByteBuffer content) {
+		this.content = content;
+	}
+
+
+	/**
+	 * Opens a file for reading, mapped into memory when it is small enough to map in one piece.
+	 *
+	 * @param file
+	 * @return A read-only channel
+	 *
+	 * @throws IOException
+	 */
+	static SeekableByteChannel open (Path file) throws IOException {
+
+		FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+
+		if (fileChannel.size() > Integer.MAX_VALUE) {
+			return fileChannel;
+		}
+
+		try {
+			// The mapping stays valid after the file channel is closed
+			return new DSJQueryMappedChannel(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
+		}
+		finally {
+			fileChannel.close();
+		}
+	}
+
+
+	@Override
+	public synchronized int read (ByteBuffer destination) throws IOException {
+
+		checkOpen();
+
+		if (!content.hasRemaining()) {
+			return -1;
+		}
+
+		int count = Math.min(destination.remaining(), content.remaining());
+
+		ByteBuffer slice = content.slice();
+		slice.limit(count);
+		destination.put(slice);
+
+		content.position(content.position() + count);
+
+		return count;
+	}
+
+
+	@Override
+	public int write (ByteBuffer source) {
+		throw new NonWritableChannelException();
+	}
+
+
+	@Override
+	public synchronized long position () throws IOException {
+		checkOpen();
+		return content.position();
+	}
+
+
+	@Override
+	public synchronized SeekableByteChannel position (long newPosition) throws IOException {
+
+		checkOpen();
+
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Negative position: " + newPosition);
+		}
+
+		content.position((int) Math.min(newPosition, content.limit()));
+		return this;
+	}
+
+
+	@Override
+	public synchronized long size () throws IOException {
+		checkOpen();
+		return content.limit();
+	}
+
+
+	@Override
+	public SeekableByteChannel truncate (long size) {
+		throw new NonWritableChannelException();
+	}
+
+
+	@Override
+	public synchronized boolean isOpen () {
+		return open;
+	}
+
+
+	@Override
+	public synchronized void close () {
+		open = false;
+	}
+
+
+	private void checkOpen () throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
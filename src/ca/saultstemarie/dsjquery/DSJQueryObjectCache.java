@@ -0,0 +1,222 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.xerox.docushare.DSObject;
+import com.xerox.docushare.DSSession;
+
+
+/**
+ * <b>DSJQuery Object Cache</b>
+ * Keeps recently retrieved DSObjects by handle, so selecting the same handles again,
+ * i.e. {@code new DSJQuery("#Collection-111")}, does not go to the DocuShare server.
+ * <br>
+ * Entries expire after a time to live, and the least recently used entries are removed
+ * once the cache is full.
+ * Objects changed through DSJQuery, with {@code attr()}, {@code addKeyword()}, {@code append()} or {@code remove()},
+ * are removed from the cache. Changes made outside of DSJQuery are only seen once entries expire.
+ * <br>
+ * Objects can only be used while the session that retrieved them is open,
+ * so objects are removed when the pool closes their session.
+ * <br>
+ * Enable with {@link DSJQuerySessionPool#objectCacheSetup(int, long)}.
+ */
+public class DSJQueryObjectCache {
+
+	private static final class CacheEntry {
+
+		final DSObject dsObject;
+		final DSSession dsSession;
+		final long expiresAtMillis;
+
+		CacheEntry (DSObject dsObject, DSSession dsSession, long expiresAtMillis) {
+			this.dsObject = dsObject;
+			this.dsSession = dsSession;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+	}
+
+
+	private final int  maxEntries;
+	private final long timeToLiveMillis;
+
+	/**
+	 * Entries by handle, in order of use, so the least recently used entry is first.
+	 */
+	private final LinkedHashMap<String, CacheEntry> entries;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+
+	DSJQueryObjectCache (int maxEntries, long timeToLiveMillis) {
+
+		this.maxEntries = maxEntries;
+		this.timeToLiveMillis = timeToLiveMillis;
+
+		this.entries = new LinkedHashMap<String, CacheEntry>(Math.min(maxEntries, 1024), 0.75f, true) {
+
+			private static final long serialVersionUID = 2908415436603281347L;
+
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<String, CacheEntry> eldest) {
+				return size() > DSJQueryObjectCache.this.maxEntries;
+			}
+		};
+	}
+
+
+	/**
+	 * Gets a cached object.
+	 *
+	 * @param handle - i.e. "Collection-111"
+	 * @return The cached object, or null if it is not cached or has expired.
+	 */
+	DSObject get (String handle) {
+
+		CacheEntry entry;
+
+		synchronized (entries) {
+
+			entry = entries.get(handle);
+
+			if (entry != null && entry.expiresAtMillis <= System.currentTimeMillis()) {
+				entries.remove(handle);
+				entry = null;
+			}
+		}
+
+		if (entry == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		hitCount.incrementAndGet();
+		return entry.dsObject;
+	}
+
+
+	/**
+	 * Adds an object to the cache, replacing any cached object with the same handle.
+	 *
+	 * @param dsObject
+	 * @param dsSession - The session the object was retrieved with, or null if not known,
+	 *                    in which case the object is removed when any session is closed.
+	 */
+	void put (DSObject dsObject, DSSession dsSession) {
+
+		CacheEntry entry = new CacheEntry(dsObject, dsSession, System.currentTimeMillis() + timeToLiveMillis);
+
+		synchronized (entries) {
+			entries.put(dsObject.getHandle().toString(), entry);
+		}
+	}
+
+
+	/**
+	 * Removes an object from the cache, after it has been changed.
+	 *
+	 * @param dsObject
+	 */
+	void invalidate (DSObject dsObject) {
+		invalidate(dsObject.getHandle().toString());
+	}
+
+
+	/**
+	 * Removes an object from the cache.
+	 * @category SETUP
+	 *
+	 * @param handle - i.e. "Collection-111"
+	 */
+	public void invalidate (String handle) {
+		synchronized (entries) {
+			entries.remove(handle);
+		}
+	}
+
+
+	/**
+	 * Removes the objects retrieved with a session, once the session is closed,
+	 * along with the objects whose session is not known.
+	 *
+	 * @param dsSession
+	 */
+	void invalidateSession (DSSession dsSession) {
+
+		synchronized (entries) {
+
+			Iterator<CacheEntry> entryIterator = entries.values().iterator();
+
+			while (entryIterator.hasNext()) {
+
+				CacheEntry entry = entryIterator.next();
+
+				if (entry.dsSession == null || entry.dsSession == dsSession) {
+					entryIterator.remove();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Removes all objects from the cache.
+	 * @category SETUP
+	 */
+	public void invalidateAll () {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of objects currently cached, including any that have expired but not yet been removed.
+	 */
+	public int size () {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of times a requested handle was found in the cache.
+	 */
+	public long getHitCount () {
+		return hitCount.get();
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of times a requested handle was not in the cache, or had expired.
+	 */
+	public long getMissCount () {
+		return missCount.get();
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The most objects kept in the cache.
+	 */
+	public int getMaxEntries () {
+		return maxEntries;
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return How long an object stays in the cache after it is retrieved.
+	 */
+	public long getTimeToLiveMillis () {
+		return timeToLiveMillis;
+	}
+}
@@ -0,0 +1,234 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSSession;
+
+
+/**
+ * Runs a task for each item in a list, spread over several threads,
+ * each holding its own DSSession from the pool.
+ * Results are returned in the same order as the items, regardless of which thread finished first.
+ */
+final class DSJQueryParallel {
+
+	/**
+	 * A task run for one item, using the worker thread's DSSession.
+	 */
+	interface SessionTask<T, R> {
+		R run (DSSession dsSession, T item) throws DSException, InterruptedException;
+	}
+
+
+	/**
+	 * A task run for one item that does not need a DSSession of its own,
+	 * like reading properties from an object that has already been retrieved.
+	 */
+	interface ItemTask<T, R> {
+		R run (T item) throws DSException, InterruptedException;
+	}
+
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	/**
+	 * Threads are shared by all parallel work, and are not kept alive when idle.
+	 * The number of threads in use is limited by the parallelism of each call.
+	 */
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "dsjquery-worker-" + THREAD_COUNT.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+
+	private DSJQueryParallel () {
+	}
+
+
+	/**
+	 * The shared worker threads, for other parallel work like opening DSSessions.
+	 */
+	static ExecutorService executor () {
+		return EXECUTOR;
+	}
+
+
+	/**
+	 * Runs a task for each item, using up to the given number of threads and DSSessions.
+	 * If any task fails, the remaining items are skipped and the first failure is thrown.
+	 *
+	 * @param sessionPool - The pool to take each worker's DSSession from
+	 * @param items       - The items to process
+	 * @param parallelism - The most tasks that may run at the same time
+	 * @param task        - The task to run for each item
+	 * @return The task results, in the same order as the items
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	static <T, R> List<R> map (DSJQuerySessionPool sessionPool, List<T> items, int parallelism, SessionTask<T, R> task) throws DSException, DSJQueryException, InterruptedException {
+		return runWorkers(sessionPool, items, parallelism, task);
+	}
+
+
+	/**
+	 * Runs a task for each item, using up to the given number of threads, without taking DSSessions from a pool.
+	 * If any task fails, the remaining items are skipped and the first failure is thrown.
+	 *
+	 * @param items       - The items to process
+	 * @param parallelism - The most tasks that may run at the same time
+	 * @param task        - The task to run for each item
+	 * @return The task results, in the same order as the items
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	static <T, R> List<R> map (List<T> items, int parallelism, ItemTask<T, R> task) throws DSException, DSJQueryException, InterruptedException {
+		return runWorkers(null, items, parallelism, (dsSession, item) -> task.run(item));
+	}
+
+
+	/**
+	 * Starts the workers, each holding a DSSession from the pool, if one is given.
+	 * There are never more workers than the pool's maximum size.
+	 * A worker that cannot get a DSSession leaves its items to the others, so the run only fails when no worker gets one.
+	 */
+	private static <T, R> List<R> runWorkers (DSJQuerySessionPool sessionPool, List<T> items, int parallelism, SessionTask<T, R> task) throws DSException, DSJQueryException, InterruptedException {
+
+		int workerCount = Math.max(1, Math.min(parallelism, items.size()));
+
+		if (sessionPool != null) {
+			workerCount = Math.min(workerCount, sessionPool.getMaxSize());
+		}
+
+		if (workerCount == 1 && sessionPool == null) {
+
+			// Nothing to run alongside, so avoid handing the work to another thread
+			List<R> resultList = new ArrayList<>(items.size());
+
+			for (T item : items) {
+				resultList.add(task.run(null, item));
+			}
+
+			return resultList;
+		}
+
+		@SuppressWarnings("unchecked")
+		R[] results = (R[]) new Object[items.size()];
+
+		AtomicInteger nextIndex = new AtomicInteger();
+		AtomicInteger sessionlessWorkerCount = new AtomicInteger();
+
+		int startedWorkerCount = workerCount;
+		List<Future<Void>> workers = new ArrayList<>(workerCount);
+
+		for (int workerIndex = 0; workerIndex < workerCount; workerIndex += 1) {
+
+			workers.add(EXECUTOR.submit(() -> {
+
+				DSSession dsSession = null;
+
+				if (sessionPool != null) {
+					try {
+						dsSession = sessionPool.getSession();
+					}
+					catch (DSException | RuntimeException e) {
+
+						// Sessions may all be in use elsewhere, so the workers that got one take the remaining items
+						if (sessionlessWorkerCount.incrementAndGet() < startedWorkerCount) {
+							return null;
+						}
+
+						throw e;
+					}
+					catch (InterruptedException e) {
+						nextIndex.set(items.size());
+						throw e;
+					}
+				}
+
+				try {
+					int itemIndex;
+
+					while ((itemIndex = nextIndex.getAndIncrement()) < items.size()) {
+						results[itemIndex] = task.run(dsSession, items.get(itemIndex));
+					}
+				}
+				catch (Exception e) {
+					// Stop the other workers from taking new items, whatever the failure
+					nextIndex.set(items.size());
+					throw e;
+				}
+				finally {
+					if (dsSession != null) {
+						sessionPool.returnSession(dsSession);
+					}
+				}
+
+				return null;
+			}));
+		}
+
+		awaitAll(workers);
+
+		List<R> resultList = new ArrayList<>(results.length);
+
+		for (R result : results) {
+			resultList.add(result);
+		}
+
+		return resultList;
+	}
+
+
+	/**
+	 * Waits for all workers to finish, then throws the first failure, if there was one.
+	 */
+	private static void awaitAll (List<Future<Void>> workers) throws DSException, DSJQueryException, InterruptedException {
+
+		Throwable failure = null;
+
+		for (Future<Void> worker : workers) {
+			try {
+				worker.get();
+			}
+			catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			}
+			catch (InterruptedException e) {
+				for (Future<Void> otherWorker : workers) {
+					otherWorker.cancel(true);
+				}
+				throw e;
+			}
+		}
+
+		if (failure instanceof DSException) {
+			throw (DSException) failure;
+		}
+		else if (failure instanceof DSJQueryException) {
+			throw (DSJQueryException) failure;
+		}
+		else if (failure instanceof InterruptedException) {
+			throw (InterruptedException) failure;
+		}
+		else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+}
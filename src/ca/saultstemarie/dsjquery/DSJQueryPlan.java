@@ -0,0 +1,568 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSObject;
+import com.xerox.docushare.DSSession;
+
+
+/**
+ * The deferred steps that produce the objects of a DSJQuery.
+ * A plan starts from a search or an existing list of objects,
+ * and is only run when the objects are needed.
+ * <ul>
+ * <li>Adjacent filters are tested together, in a single pass over the objects.</li>
+ * <li>Filters are added to the search when the DocuShare server can evaluate them.</li>
+ * <li>Limits, like {@code first()}, stop the search once enough objects have been found.</li>
+ * </ul>
+ */
+final class DSJQueryPlan {
+
+	/**
+	 * A test applied to each object.
+	 */
+	interface ObjectFilter {
+		boolean test (DSObject dsObject) throws DSException;
+	}
+
+
+	/**
+	 * Reorders the complete list of objects.
+	 */
+	interface ListSorter {
+		List<DSObject> sort (List<DSObject> dsObjects, int parallelism) throws DSException, DSJQueryException, InterruptedException;
+	}
+
+
+	private enum StepType {
+		FILTER,
+		LIMIT,
+		SORT,
+		TOP,
+		REVERSE
+	}
+
+
+	private static final class Step {
+
+		final StepType type;
+		final ObjectFilter filter;
+		final int offset;
+		final int limit;
+		final ListSorter sorter;
+		final DSJQuerySortKeys sortKeys;
+		final DSJQueryPropertyCache propertyCache;
+
+		private Step (StepType type, ObjectFilter filter, int offset, int limit, ListSorter sorter, DSJQuerySortKeys sortKeys, DSJQueryPropertyCache propertyCache) {
+			this.type = type;
+			this.filter = filter;
+			this.offset = offset;
+			this.limit = limit;
+			this.sorter = sorter;
+			this.sortKeys = sortKeys;
+			this.propertyCache = propertyCache;
+		}
+
+		static Step filter (ObjectFilter filter) {
+			return new Step(StepType.FILTER, filter, 0, 0, null, null, null);
+		}
+
+		static Step limit (int offset, int limit) {
+			return new Step(StepType.LIMIT, null, offset, limit, null, null, null);
+		}
+
+		static Step sort (ListSorter sorter) {
+			return new Step(StepType.SORT, null, 0, 0, sorter, null, null);
+		}
+
+		static Step top (int limit, DSJQuerySortKeys sortKeys, DSJQueryPropertyCache propertyCache) {
+			return new Step(StepType.TOP, null, 0, limit, null, sortKeys, propertyCache);
+		}
+
+		static Step reverse () {
+			return new Step(StepType.REVERSE, null, 0, 0, null, null, null);
+		}
+
+		/**
+		 * The position after the last object a limit keeps.
+		 */
+		long end () {
+			return (long) offset + limit;
+		}
+
+		/**
+		 * Sorting and reversing need every object before they can produce the first one.
+		 */
+		boolean isBarrier () {
+			return type == StepType.SORT || type == StepType.TOP || type == StepType.REVERSE;
+		}
+	}
+
+
+	/**
+	 * The search that provides the objects, or null if {@link #sourceObjects} is used.
+	 */
+	private final DSJQuerySearch search;
+
+	/**
+	 * The objects to start with when there is no search.
+	 */
+	private final List<DSObject> sourceObjects;
+
+	private final List<Step> steps;
+
+
+	DSJQueryPlan (DSJQuerySearch search) {
+		this(search, null, Collections.<Step>emptyList());
+	}
+
+
+	DSJQueryPlan (List<DSObject> sourceObjects) {
+		this(null, sourceObjects, Collections.<Step>emptyList());
+	}
+
+
+	private DSJQueryPlan (DSJQuerySearch search, List<DSObject> sourceObjects, List<Step> steps) {
+		this.search = search;
+		this.sourceObjects = sourceObjects;
+		this.steps = steps;
+	}
+
+
+	private DSJQueryPlan withStep (Step step) {
+
+		List<Step> newSteps = new ArrayList<>(steps.size() + 1);
+		newSteps.addAll(steps);
+		newSteps.add(step);
+
+		return new DSJQueryPlan(search, sourceObjects, newSteps);
+	}
+
+
+	/**
+	 * Limits change which objects later filters see,
+	 * so a filter can only move ahead of the steps when there are no limits.
+	 * Top steps are a sort followed by a limit.
+	 * Sorting and reversing do not change which objects pass a filter.
+	 */
+	private boolean hasLimit () {
+
+		for (Step step : steps) {
+			if (step.type == StepType.LIMIT || step.type == StepType.TOP) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Adds a predicate to the search, if the plan has a search and the predicate can be moved there.
+	 *
+	 * @param predicate
+	 * @param propertyCache - Prefetched values to check loosely matched results with, or null
+	 * @return A new DSJQueryPlan, or null if the predicate must be tested on the client.
+	 */
+	DSJQueryPlan withSearchPredicate (DSJQueryPredicate predicate, DSJQueryPropertyCache propertyCache) {
+
+		if (search == null || hasLimit() || !predicate.isServerExpressible()) {
+			return null;
+		}
+
+		return new DSJQueryPlan(search.withPredicate(predicate, propertyCache), null, steps);
+	}
+
+
+	/**
+	 * Limits the search to an object class, if the plan has a search and the class can be moved there.
+	 *
+	 * @param className
+	 * @return A new DSJQueryPlan, or null if the class must be tested on the client.
+	 */
+	DSJQueryPlan withSearchClassName (String className) {
+
+		if (search == null || hasLimit()) {
+			return null;
+		}
+
+		DSJQuerySearch classSearch = search.withClassName(className);
+
+		if (classSearch == null) {
+			return null;
+		}
+
+		return new DSJQueryPlan(classSearch, null, steps);
+	}
+
+
+	DSJQueryPlan withFilter (ObjectFilter filter) {
+		return withStep(Step.filter(filter));
+	}
+
+
+	DSJQueryPlan withLimit (int limit) {
+		return withSlice(0, limit);
+	}
+
+
+	/**
+	 * Skips a number of objects, then keeps a number of objects.
+	 * Objects are no longer retrieved once the slice is complete.
+	 */
+	DSJQueryPlan withSlice (int offset, int limit) {
+		return withStep(Step.limit(offset, limit));
+	}
+
+
+	/**
+	 * Keeps the first objects in sort order.
+	 * Objects are passed through a heap of the given size as they arrive,
+	 * so the whole set is never held or sorted.
+	 */
+	DSJQueryPlan withTop (int limit, DSJQuerySortKeys sortKeys, DSJQueryPropertyCache propertyCache) {
+		return withStep(Step.top(limit, sortKeys, propertyCache));
+	}
+
+
+	DSJQueryPlan withSort (Comparator<DSObject> comparator) {
+		return withSorter((dsObjects, parallelism) -> {
+			dsObjects.sort(comparator);
+			return dsObjects;
+		});
+	}
+
+
+	DSJQueryPlan withSorter (ListSorter sorter) {
+		return withStep(Step.sort(sorter));
+	}
+
+
+	DSJQueryPlan withReverse () {
+		return withStep(Step.reverse());
+	}
+
+
+	/**
+	 * Tests if running the plan requires a DSSession.
+	 */
+	boolean needsSession () {
+		return search != null;
+	}
+
+
+	/**
+	 * Tests if running the plan with the given parallelism requires the caller to provide a DSSession.
+	 * Plans run in parallel take their own DSSessions from the pool.
+	 */
+	boolean needsSession (int parallelism) {
+		return needsSession() && !isParallel(parallelism);
+	}
+
+
+	/**
+	 * Searches can run in parallel when there is more than one Collection scope.
+	 * Limits stop the search early, which is only possible when the scopes are searched in order.
+	 */
+	private boolean isParallel (int parallelism) {
+		return parallelism > 1 && search != null && search.isParallelizable() && !hasLimit();
+	}
+
+
+	/**
+	 * Tests if the plan's search can be answered by a {@link DSJQueryResultCache}.
+	 * Plans with limits are left out, as they usually stop the search early,
+	 * while the cache needs every matching object.
+	 */
+	boolean isCacheable () {
+
+		if (search == null) {
+			return false;
+		}
+
+		for (Step step : steps) {
+			if (step.type == StepType.LIMIT) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Counts the steps that can be applied while the objects are retrieved,
+	 * the filters and limits ahead of the first sort.
+	 */
+	private int streamingStepCount () {
+
+		int streamingStepCount = 0;
+
+		while (streamingStepCount < steps.size() && !steps.get(streamingStepCount).isBarrier()) {
+			streamingStepCount += 1;
+		}
+
+		return streamingStepCount;
+	}
+
+
+	/**
+	 * Tests if every step can be applied while the objects are retrieved,
+	 * so the plan's objects can be used one at a time with {@link #open(DSSession)}.
+	 */
+	boolean isStreamable () {
+		return streamingStepCount() == steps.size();
+	}
+
+
+	/**
+	 * Starts the plan, without retrieving any objects yet.
+	 * Only the steps ahead of the first sort are applied by the cursor.
+	 *
+	 * @param dsSession - The session used by the search, held by the caller until the cursor is no longer used.
+	 * @return A cursor over the plan's objects
+	 */
+	Cursor open (DSSession dsSession) {
+		return new Cursor(dsSession, streamingStepCount());
+	}
+
+
+	/**
+	 * Retrieves the plan's objects one at a time,
+	 * testing the filters and counting the limits as each object arrives.
+	 */
+	final class Cursor {
+
+		private final DSJQuerySearch.Cursor searchCursor;
+		private final Iterator<DSObject> sourceIterator;
+
+		private final int streamingStepCount;
+		private final int[] limitCounts;
+
+		private boolean done = false;
+
+
+		private Cursor (DSSession dsSession, int streamingStepCount) {
+
+			this.searchCursor = (search == null ? null : search.open(dsSession));
+			this.sourceIterator = (search == null ? sourceObjects.iterator() : null);
+
+			this.streamingStepCount = streamingStepCount;
+			this.limitCounts = new int[streamingStepCount];
+		}
+
+
+		/**
+		 * Retrieves the next object.
+		 *
+		 * @return The next object, or null if there are no more.
+		 *
+		 * @throws DSException
+		 */
+		DSObject next () throws DSException {
+
+			while (!done) {
+
+				DSObject item = null;
+
+				if (searchCursor != null) {
+					item = searchCursor.next();
+				}
+				else if (sourceIterator.hasNext()) {
+					item = sourceIterator.next();
+				}
+
+				if (item == null) {
+					done = true;
+				}
+				else if (accept(item)) {
+					return item;
+				}
+			}
+
+			return null;
+		}
+
+
+		/**
+		 * Passes one object through the streaming steps.
+		 * Marks the cursor done once a limit has been reached.
+		 *
+		 * @return TRUE if the object passes every step.
+		 */
+		private boolean accept (DSObject item) throws DSException {
+
+			for (int stepIndex = 0; stepIndex < streamingStepCount; stepIndex += 1) {
+
+				Step step = steps.get(stepIndex);
+
+				if (step.type == StepType.FILTER) {
+
+					if (!step.filter.test(item)) {
+						return false;
+					}
+				}
+				else {
+
+					int position = limitCounts[stepIndex];
+
+					if (position >= step.end()) {
+						done = true;
+						return false;
+					}
+
+					limitCounts[stepIndex] += 1;
+
+					if (position + 1 >= step.end()) {
+						done = true;
+					}
+
+					if (position < step.offset) {
+						return false;
+					}
+				}
+			}
+
+			return true;
+		}
+	}
+
+
+	/**
+	 * Runs the plan, searching Collection scopes in parallel when possible.
+	 * Sorts may also retrieve attribute values in parallel.
+	 *
+	 * @param dsSession   - The session used by the search, may be null if {@link #needsSession(int)} is FALSE.
+	 * @param sessionPool - The pool to take DSSessions from when searching in parallel
+	 * @param parallelism - The most searches to run at the same time
+	 * @return The resulting objects
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	List<DSObject> execute (DSSession dsSession, DSJQuerySessionPool sessionPool, int parallelism) throws DSException, DSJQueryException, InterruptedException {
+
+		if (isParallel(parallelism)) {
+			return new DSJQueryPlan(null, search.executeParallel(sessionPool, parallelism), steps).executeSteps(null, parallelism);
+		}
+
+		return executeSteps(dsSession, parallelism);
+	}
+
+
+	/**
+	 * Runs the plan, taking the search's objects from a result cache when they are cached.
+	 * Only the search is cached. The plan's steps are always applied to its objects.
+	 *
+	 * @param resultCache - The cache to use, with a plan where {@link #isCacheable()} is TRUE.
+	 * @param sessionPool - The pool to take DSSessions from, to search or to retrieve objects by handle
+	 * @param parallelism - The most DSSessions to use at the same time
+	 * @return The resulting objects
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	List<DSObject> executeCached (DSJQueryResultCache resultCache, DSJQuerySessionPool sessionPool, int parallelism) throws DSException, DSJQueryException, InterruptedException {
+		return new DSJQueryPlan(null, resultCache.search(search, sessionPool, parallelism), steps).executeSteps(null, parallelism);
+	}
+
+
+	/**
+	 * Runs the plan, retrieving the objects with a single session.
+	 */
+	private List<DSObject> executeSteps (DSSession dsSession, int parallelism) throws DSException, DSJQueryException, InterruptedException {
+
+		/*
+		 * Filters and limits ahead of the first sort are applied while the objects are retrieved.
+		 * When the first sort is a top step, the objects go straight into its heap.
+		 */
+
+		Cursor cursor = open(dsSession);
+		int stepIndex = cursor.streamingStepCount;
+
+		List<DSObject> newDsObjects;
+		DSObject item;
+
+		if (stepIndex < steps.size() && steps.get(stepIndex).type == StepType.TOP) {
+
+			Step step = steps.get(stepIndex);
+			DSJQuerySortKeys.TopCollector topCollector = step.sortKeys.top(step.limit, step.propertyCache);
+
+			while ((item = cursor.next()) != null) {
+				topCollector.offer(item);
+			}
+
+			newDsObjects = topCollector.toList();
+			stepIndex += 1;
+		}
+		else {
+
+			newDsObjects = new ArrayList<>();
+
+			while ((item = cursor.next()) != null) {
+				newDsObjects.add(item);
+			}
+		}
+
+		/*
+		 * The remaining steps run over the whole list.
+		 */
+
+		for (; stepIndex < steps.size(); stepIndex += 1) {
+
+			Step step = steps.get(stepIndex);
+
+			switch (step.type) {
+
+				case FILTER:
+
+					List<DSObject> filteredDsObjects = new ArrayList<>(newDsObjects.size() / 2 + 1);
+
+					for (DSObject obj : newDsObjects) {
+						if (step.filter.test(obj)) {
+							filteredDsObjects.add(obj);
+						}
+					}
+
+					newDsObjects = filteredDsObjects;
+					break;
+
+				case LIMIT:
+
+					int fromIndex = Math.min(step.offset, newDsObjects.size());
+					int toIndex = (int) Math.min(step.end(), newDsObjects.size());
+
+					if (fromIndex > 0 || toIndex < newDsObjects.size()) {
+						newDsObjects = new ArrayList<>(newDsObjects.subList(fromIndex, toIndex));
+					}
+					break;
+
+				case SORT:
+					newDsObjects = step.sorter.sort(newDsObjects, parallelism);
+					break;
+
+				case TOP:
+
+					DSJQuerySortKeys.TopCollector topCollector = step.sortKeys.top(step.limit, step.propertyCache);
+
+					for (DSObject obj : newDsObjects) {
+						topCollector.offer(obj);
+					}
+
+					newDsObjects = topCollector.toList();
+					break;
+
+				case REVERSE:
+					Collections.reverse(newDsObjects);
+					break;
+			}
+		}
+
+		return newDsObjects;
+	}
+}
@@ -0,0 +1,241 @@
+package ca.saultstemarie.dsjquery;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+import com.xerox.docushare.query.DSQuery;
+import com.xerox.docushare.query.DSQueryCondition;
+
+
+/**
+ * An attribute predicate, as written in a selector like {@code [name^='value']}.
+ * Predicates are parsed by {@link DSJQuerySelector}.
+ * A predicate can be tested against a DSObject on the client,
+ * or translated into a DSQuery condition and evaluated by the DocuShare server.
+ * <br>
+ * Range operators, like {@code [size>52428800]} or {@code [modified_date>='2026-10-01']},
+ * compare numbers and dates by value rather than as text.
+ */
+final class DSJQueryPredicate {
+
+	enum Operator {
+		EQUALS ("="),
+		STARTS_WITH ("^="),
+		ENDS_WITH ("$="),
+		CONTAINS ("~="),
+		GREATER_THAN_OR_EQUAL (">="),
+		GREATER_THAN (">"),
+		LESS_THAN_OR_EQUAL ("<="),
+		LESS_THAN ("<");
+
+		final String token;
+
+		Operator (String token) {
+			this.token = token;
+		}
+
+		/**
+		 * Tests if the operator compares values by order, rather than as text.
+		 */
+		boolean isRange () {
+			return this == GREATER_THAN_OR_EQUAL || this == GREATER_THAN || this == LESS_THAN_OR_EQUAL || this == LESS_THAN;
+		}
+	}
+
+
+	final String   propertyName;
+	final Operator operator;
+	final String   propertyValue;
+	final boolean  ignoreCase;
+
+	/**
+	 * The value compared by range operators, a Long, Double, Date or String parsed from {@link #propertyValue}.
+	 */
+	final Object   rangeValue;
+
+
+	DSJQueryPredicate (String propertyName, Operator operator, String propertyValue, boolean ignoreCase) {
+		this.propertyName = propertyName;
+		this.operator = operator;
+		this.propertyValue = propertyValue;
+		this.ignoreCase = ignoreCase;
+		this.rangeValue = (operator.isRange() ? parseRangeValue(propertyValue) : null);
+	}
+
+
+	/**
+	 * Reads a number or date from a selector value.
+	 * Dates are written as "2026-10-01", "2026-10-01T13:30" or "2026-10-01T13:30:00", in the local time zone.
+	 *
+	 * @param propertyValue
+	 * @return A Long, Double or Date, or the original String if it is neither a number nor a date.
+	 */
+	static Object parseRangeValue (String propertyValue) {
+
+		String trimmedValue = propertyValue.trim();
+
+		try {
+			return Long.valueOf(trimmedValue);
+		}
+		catch (NumberFormatException e) {
+			// not a whole number
+		}
+
+		try {
+			return Double.valueOf(trimmedValue);
+		}
+		catch (NumberFormatException e) {
+			// not a number
+		}
+
+		try {
+			if (trimmedValue.length() == 10) {
+				return Date.from(LocalDate.parse(trimmedValue).atStartOfDay(ZoneId.systemDefault()).toInstant());
+			}
+			return Date.from(LocalDateTime.parse(trimmedValue.replace(' ', 'T')).atZone(ZoneId.systemDefault()).toInstant());
+		}
+		catch (DateTimeParseException e) {
+			// not a date
+		}
+
+		return propertyValue;
+	}
+
+
+	/**
+	 * Tests the predicate against a property value that has already been retrieved.
+	 *
+	 * @param value - The object's value for {@link #propertyName}
+	 * @return TRUE if the value satisfies the predicate
+	 */
+	boolean testValue (Object value) {
+
+		if (value == null) {
+			return false;
+		}
+
+		if (operator.isRange()) {
+			return testRange(value);
+		}
+
+		String stringValue = value.toString();
+		String propertyValueForCompare = propertyValue;
+
+		if (ignoreCase) {
+			stringValue = stringValue.toLowerCase();
+			propertyValueForCompare = propertyValueForCompare.toLowerCase();
+		}
+
+		switch (operator) {
+			case STARTS_WITH:
+				return stringValue.startsWith(propertyValueForCompare);
+			case ENDS_WITH:
+				return stringValue.endsWith(propertyValueForCompare);
+			case CONTAINS:
+				return stringValue.contains(propertyValueForCompare);
+			default:
+				return stringValue.equals(propertyValueForCompare);
+		}
+	}
+
+
+	/**
+	 * Compares a property value against the range value.
+	 * Text property values are read as numbers or dates when the range value is one.
+	 */
+	private boolean testRange (Object value) {
+
+		Object comparableValue = value;
+
+		if (rangeValue instanceof Number && !(value instanceof Number)) {
+			comparableValue = parseRangeValue(value.toString());
+		}
+		else if (rangeValue instanceof Date && !(value instanceof Date)) {
+			comparableValue = (value instanceof Number ? new Date(((Number) value).longValue()) : parseRangeValue(value.toString()));
+		}
+
+		if (rangeValue instanceof Number != comparableValue instanceof Number || rangeValue instanceof Date != comparableValue instanceof Date) {
+			return false;
+		}
+
+		int compare = DSJQuerySortKeys.compareValues(comparableValue, rangeValue);
+
+		switch (operator) {
+			case GREATER_THAN_OR_EQUAL:
+				return compare >= 0;
+			case GREATER_THAN:
+				return compare > 0;
+			case LESS_THAN_OR_EQUAL:
+				return compare <= 0;
+			default:
+				return compare < 0;
+		}
+	}
+
+
+	/**
+	 * Tests if the predicate can be evaluated by the DocuShare server.
+	 * DocuShare property matching is not case sensitive by option,
+	 * so case insensitive predicates are left to the client.
+	 * Ranges are only sent for numbers and dates, where the server compares by value.
+	 *
+	 * @return TRUE if {@link #toQueryCondition()} can be used.
+	 */
+	boolean isServerExpressible () {
+
+		if (operator.isRange()) {
+			return rangeValue instanceof Number || rangeValue instanceof Date;
+		}
+
+		return !ignoreCase;
+	}
+
+
+	/**
+	 * Tests if the DocuShare server evaluates the predicate exactly, so objects it returns need no check on the client.
+	 * Equality and ranges are compared exactly.
+	 * The search index may match text operators more loosely than a string comparison, i.e. by word.
+	 *
+	 * @return TRUE if server matches always satisfy the predicate.
+	 */
+	boolean isServerExact () {
+		return operator == Operator.EQUALS || operator.isRange();
+	}
+
+
+	/**
+	 * Translates the predicate into a DSQuery search condition.
+	 *
+	 * @return A condition for use in a DSQuery
+	 */
+	DSQueryCondition toQueryCondition () {
+
+		switch (operator) {
+			case STARTS_WITH:
+				return DSQuery.startsWith(propertyName, propertyValue);
+			case ENDS_WITH:
+				return DSQuery.endsWith(propertyName, propertyValue);
+			case CONTAINS:
+				return DSQuery.contains(propertyName, propertyValue);
+			case GREATER_THAN_OR_EQUAL:
+				return DSQuery.greaterThanOrEqual(propertyName, rangeValue);
+			case GREATER_THAN:
+				return DSQuery.greaterThan(propertyName, rangeValue);
+			case LESS_THAN_OR_EQUAL:
+				return DSQuery.lessThanOrEqual(propertyName, rangeValue);
+			case LESS_THAN:
+				return DSQuery.lessThan(propertyName, rangeValue);
+			default:
+				return DSQuery.matches(propertyName, propertyValue);
+		}
+	}
+
+
+	@Override
+	public String toString () {
+		return "[" + propertyName + operator.token + "'" + propertyValue.replace("\\", "\\\\").replace("'", "\\'") + "'" + (ignoreCase ? " i" : "") + "]";
+	}
+}
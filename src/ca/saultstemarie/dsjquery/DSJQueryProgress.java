@@ -0,0 +1,107 @@
+package ca.saultstemarie.dsjquery;
+
+
+/**
+ * <b>DSJQuery Progress</b>
+ * How far a long-running operation has come, like {@link DSJQuery#insertAllAndGet(java.util.Collection, Listener)},
+ * with its throughput so far.
+ */
+public final class DSJQueryProgress {
+
+	/**
+	 * Receives progress as each item completes.
+	 * Called from worker threads, one call at a time.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+		void progress (DSJQueryProgress progress);
+	}
+
+
+	private final int  completedCount;
+	private final int  totalCount;
+	private final long completedBytes;
+	private final long totalBytes;
+	private final long elapsedMillis;
+
+
+	DSJQueryProgress (int completedCount, int totalCount, long completedBytes, long totalBytes, long elapsedMillis) {
+		this.completedCount = completedCount;
+		this.totalCount = totalCount;
+		this.completedBytes = completedBytes;
+		this.totalBytes = totalBytes;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+
+	/**
+	 * @return The number of items completed so far.
+	 */
+	public int getCompletedCount () {
+		return completedCount;
+	}
+
+
+	/**
+	 * @return The number of items in the operation.
+	 */
+	public int getTotalCount () {
+		return totalCount;
+	}
+
+
+	/**
+	 * @return The size of the items completed so far.
+	 */
+	public long getCompletedBytes () {
+		return completedBytes;
+	}
+
+
+	/**
+	 * @return The size of all items in the operation.
+	 */
+	public long getTotalBytes () {
+		return totalBytes;
+	}
+
+
+	/**
+	 * @return How long the operation has been running.
+	 */
+	public long getElapsedMillis () {
+		return elapsedMillis;
+	}
+
+
+	/**
+	 * @return TRUE once all items are completed.
+	 */
+	public boolean isDone () {
+		return completedCount >= totalCount;
+	}
+
+
+	/**
+	 * @return The average number of items completed per second so far.
+	 */
+	public double getItemsPerSecond () {
+		return (elapsedMillis == 0 ? 0 : completedCount * 1000.0 / elapsedMillis);
+	}
+
+
+	/**
+	 * @return The average number of bytes completed per second so far.
+	 */
+	public double getBytesPerSecond () {
+		return (elapsedMillis == 0 ? 0 : completedBytes * 1000.0 / elapsedMillis);
+	}
+
+
+	@Override
+	public String toString () {
+		return completedCount + "/" + totalCount + " items, "
+				+ completedBytes + "/" + totalBytes + " bytes, "
+				+ String.format("%.1f items/s, %.0f bytes/s", getItemsPerSecond(), getBytesPerSecond());
+	}
+}
@@ -0,0 +1,153 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSObject;
+
+
+/**
+ * Property values retrieved ahead of time, kept by object handle,
+ * so filters, sorts and attributes can read them without a call to the DocuShare server.
+ * Only the prefetched property names are cached. Other properties are read from the object.
+ */
+final class DSJQueryPropertyCache {
+
+	/**
+	 * Stands in for null property values, which cannot be stored in a ConcurrentHashMap.
+	 */
+	private static final Object NULL_VALUE = new Object();
+
+
+	private final Set<String> propertyNames;
+
+	/**
+	 * Property values by object handle, then by property name.
+	 */
+	private final Map<String, Map<String, Object>> values;
+
+
+	DSJQueryPropertyCache () {
+		this(Collections.<String>emptySet(), new ConcurrentHashMap<>());
+	}
+
+
+	private DSJQueryPropertyCache (Set<String> propertyNames, Map<String, Map<String, Object>> values) {
+		this.propertyNames = propertyNames;
+		this.values = values;
+	}
+
+
+	/**
+	 * Creates a new cache holding the same values, that also caches the given properties.
+	 *
+	 * @param newPropertyNames - i.e. "title", "modified_date"
+	 * @return A new DSJQueryPropertyCache
+	 */
+	DSJQueryPropertyCache withPropertyNames (String... newPropertyNames) {
+
+		Set<String> combinedPropertyNames = new HashSet<>(propertyNames);
+		Collections.addAll(combinedPropertyNames, newPropertyNames);
+
+		Map<String, Map<String, Object>> copiedValues = new ConcurrentHashMap<>();
+
+		for (Map.Entry<String, Map<String, Object>> entry : values.entrySet()) {
+			copiedValues.put(entry.getKey(), new ConcurrentHashMap<>(entry.getValue()));
+		}
+
+		return new DSJQueryPropertyCache(Collections.unmodifiableSet(combinedPropertyNames), copiedValues);
+	}
+
+
+	/**
+	 * Retrieves the cached properties that are missing for each object,
+	 * spreading the objects over several threads.
+	 *
+	 * @param dsObjects
+	 * @param parallelism - The most objects to retrieve properties for at the same time
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	void fetch (List<DSObject> dsObjects, int parallelism) throws DSException, DSJQueryException, InterruptedException {
+
+		List<Map<String, Object>> fetchedValues = DSJQueryParallel.map(dsObjects, parallelism, dsObject -> {
+
+			Map<String, Object> objectValues = values.get(key(dsObject));
+			Map<String, Object> newObjectValues = new HashMap<>();
+
+			for (String propertyName : propertyNames) {
+
+				if (objectValues == null || !objectValues.containsKey(propertyName)) {
+
+					Object value = dsObject.get(propertyName);
+					newObjectValues.put(propertyName, (value == null ? NULL_VALUE : value));
+				}
+			}
+
+			return newObjectValues;
+		});
+
+		for (int index = 0; index < dsObjects.size(); index += 1) {
+			values.computeIfAbsent(key(dsObjects.get(index)), handle -> new ConcurrentHashMap<>())
+				.putAll(fetchedValues.get(index));
+		}
+	}
+
+
+	/**
+	 * Gets a property value, from the cache if it has been prefetched.
+	 *
+	 * @param dsObject
+	 * @param propertyName
+	 * @return The property value
+	 *
+	 * @throws DSException
+	 */
+	Object get (DSObject dsObject, String propertyName) throws DSException {
+
+		if (propertyNames.contains(propertyName)) {
+
+			Map<String, Object> objectValues = values.get(key(dsObject));
+
+			if (objectValues != null) {
+
+				Object value = objectValues.get(propertyName);
+
+				if (value != null) {
+					return (value == NULL_VALUE ? null : value);
+				}
+			}
+		}
+
+		return dsObject.get(propertyName);
+	}
+
+
+	/**
+	 * Updates a cached property value after it has been saved to the object.
+	 *
+	 * @param dsObject
+	 * @param propertyName
+	 * @param value
+	 */
+	void put (DSObject dsObject, String propertyName, Object value) {
+
+		if (propertyNames.contains(propertyName)) {
+			values.computeIfAbsent(key(dsObject), handle -> new ConcurrentHashMap<>())
+				.put(propertyName, (value == null ? NULL_VALUE : value));
+		}
+	}
+
+
+	private static String key (DSObject dsObject) {
+		return dsObject.getHandle().toString();
+	}
+}
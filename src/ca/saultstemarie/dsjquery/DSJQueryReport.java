@@ -0,0 +1,147 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * <b>DSJQuery Report</b>
+ * The outcome of a change applied to many objects, like {@link DSJQuery#commit()},
+ * with a result for each object, so one failure does not hide which objects were changed.
+ */
+public class DSJQueryReport implements Iterable<DSJQueryReport.Result> {
+
+	/**
+	 * The outcome for one object.
+	 */
+	public static final class Result {
+
+		private final String handle;
+		private final Exception error;
+
+		Result (String handle, Exception error) {
+			this.handle = handle;
+			this.error = error;
+		}
+
+
+		/**
+		 * @return The object's handle, i.e. "Document-111"
+		 */
+		public String getHandle () {
+			return handle;
+		}
+
+
+		/**
+		 * @return TRUE if the change was applied to the object.
+		 */
+		public boolean isSuccess () {
+			return error == null;
+		}
+
+
+		/**
+		 * @return Why the change failed, or null if it was applied.
+		 */
+		public Exception getError () {
+			return error;
+		}
+
+
+		@Override
+		public String toString () {
+			return handle + (error == null ? ": OK" : ": " + error);
+		}
+	}
+
+
+	private final List<Result> results;
+	private final long elapsedMillis;
+
+
+	DSJQueryReport (List<Result> results, long elapsedMillis) {
+		this.results = Collections.unmodifiableList(results);
+		this.elapsedMillis = elapsedMillis;
+	}
+
+
+	/**
+	 * @return The result for each object, in the order the objects were changed.
+	 */
+	public List<Result> getResults () {
+		return results;
+	}
+
+
+	@Override
+	public Iterator<Result> iterator () {
+		return results.iterator();
+	}
+
+
+	/**
+	 * @return The results for the objects that could not be changed.
+	 */
+	public List<Result> getFailures () {
+
+		List<Result> failures = new ArrayList<>();
+
+		for (Result result : results) {
+			if (!result.isSuccess()) {
+				failures.add(result);
+			}
+		}
+
+		return failures;
+	}
+
+
+	/**
+	 * @return The number of objects changed.
+	 */
+	public int getSuccessCount () {
+		return results.size() - getFailureCount();
+	}
+
+
+	/**
+	 * @return The number of objects that could not be changed.
+	 */
+	public int getFailureCount () {
+
+		int failureCount = 0;
+
+		for (Result result : results) {
+			if (!result.isSuccess()) {
+				failureCount += 1;
+			}
+		}
+
+		return failureCount;
+	}
+
+
+	/**
+	 * @return TRUE if every object was changed.
+	 */
+	public boolean isSuccess () {
+		return getFailureCount() == 0;
+	}
+
+
+	/**
+	 * @return How long the change took, across all objects.
+	 */
+	public long getElapsedMillis () {
+		return elapsedMillis;
+	}
+
+
+	@Override
+	public String toString () {
+		return getSuccessCount() + " succeeded, " + getFailureCount() + " failed, in " + elapsedMillis + " ms";
+	}
+}
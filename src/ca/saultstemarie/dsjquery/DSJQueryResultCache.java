@@ -0,0 +1,346 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSHandle;
+import com.xerox.docushare.DSObject;
+import com.xerox.docushare.DSSession;
+
+
+/**
+ * <b>DSJQuery Result Cache</b>
+ * Keeps the handles found by recent searches, so repeating the same search,
+ * i.e. {@code new DSJQuery("#Collection-111 .Document")}, does not search the DocuShare server again.
+ * <br>
+ * Searches are matched by their scope, class and attribute selectors, regardless of the order they were written in.
+ * Only handles are kept. Objects are taken from the {@link DSJQueryObjectCache} when it is enabled,
+ * and retrieved by handle otherwise.
+ * <br>
+ * Results are fresh for a time to live. After that, they may still be used for a stale period,
+ * while the search is repeated in the background.
+ * Once the cache holds more handles than its limit, the least recently used results are removed.
+ * <br>
+ * Enable with {@link DSJQuerySessionPool#resultCacheSetup(int, long, long)},
+ * then use for a query with {@link DSJQuery#useResultCache(boolean)}.
+ */
+public class DSJQueryResultCache {
+
+	private static final class CacheEntry {
+
+		final List<String> handles;
+		final long freshUntilMillis;
+		final long staleUntilMillis;
+		final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+		CacheEntry (List<String> handles, long freshUntilMillis, long staleUntilMillis) {
+			this.handles = handles;
+			this.freshUntilMillis = freshUntilMillis;
+			this.staleUntilMillis = staleUntilMillis;
+		}
+	}
+
+
+	private final int  maxHandles;
+	private final long timeToLiveMillis;
+	private final long staleMillis;
+
+	/**
+	 * Results by search, in order of use, so the least recently used results are first.
+	 */
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private int handleCount = 0;
+
+	/**
+	 * Counts calls to {@link #invalidateAll()}, so a search that started before the results were invalidated
+	 * does not store results that may be out of date.
+	 */
+	private long generation = 0;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong staleHitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+
+	DSJQueryResultCache (int maxHandles, long timeToLiveMillis, long staleMillis) {
+		this.maxHandles = maxHandles;
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.staleMillis = staleMillis;
+	}
+
+
+	/**
+	 * Runs a search, using the cached handles when available.
+	 *
+	 * @param search
+	 * @param sessionPool - The pool to take DSSessions from, to search or to retrieve objects by handle
+	 * @param parallelism - The most DSSessions to use at the same time
+	 * @return The matching objects
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	List<DSObject> search (DSJQuerySearch search, DSJQuerySessionPool sessionPool, int parallelism) throws DSException, DSJQueryException, InterruptedException {
+
+		String cacheKey = search.cacheKey();
+		long nowMillis = System.currentTimeMillis();
+
+		CacheEntry entry;
+		long startGeneration;
+
+		synchronized (entries) {
+			entry = entries.get(cacheKey);
+			startGeneration = generation;
+		}
+
+		if (entry != null && nowMillis < entry.freshUntilMillis) {
+			hitCount.incrementAndGet();
+			return load(entry.handles, sessionPool, parallelism);
+		}
+		else if (entry != null && nowMillis < entry.staleUntilMillis) {
+			staleHitCount.incrementAndGet();
+			refreshInBackground(cacheKey, entry, startGeneration, search, sessionPool, parallelism);
+			return load(entry.handles, sessionPool, parallelism);
+		}
+
+		missCount.incrementAndGet();
+
+		List<DSObject> dsObjects = runSearch(search, sessionPool, parallelism);
+		store(cacheKey, dsObjects, startGeneration);
+
+		return dsObjects;
+	}
+
+
+	/**
+	 * Runs a search on the server, and keeps its objects in the object cache, if it is enabled.
+	 */
+	private static List<DSObject> runSearch (DSJQuerySearch search, DSJQuerySessionPool sessionPool, int parallelism) throws DSException, DSJQueryException, InterruptedException {
+
+		if (parallelism > 1 && search.isParallelizable()) {
+
+			List<DSObject> dsObjects = search.executeParallel(sessionPool, parallelism);
+
+			// Spread over several sessions, so the objects are kept without their session
+			cacheObjects(dsObjects, null, sessionPool);
+
+			return dsObjects;
+		}
+
+		DSSession dsSession = sessionPool.getSession();
+
+		try {
+			List<DSObject> dsObjects = search.execute(dsSession);
+			cacheObjects(dsObjects, dsSession, sessionPool);
+
+			return dsObjects;
+		}
+		finally {
+			sessionPool.returnSession(dsSession);
+		}
+	}
+
+
+	private static void cacheObjects (List<DSObject> dsObjects, DSSession dsSession, DSJQuerySessionPool sessionPool) {
+
+		DSJQueryObjectCache objectCache = sessionPool.getObjectCache();
+
+		if (objectCache != null) {
+			for (DSObject dsObject : dsObjects) {
+				objectCache.put(dsObject, dsSession);
+			}
+		}
+	}
+
+
+	/**
+	 * Repeats a search on a worker thread, unless it is already being repeated.
+	 * If the search fails, the stale results stay until they expire.
+	 */
+	private void refreshInBackground (String cacheKey, CacheEntry entry, long startGeneration, DSJQuerySearch search, DSJQuerySessionPool sessionPool, int parallelism) {
+
+		if (!entry.refreshing.compareAndSet(false, true)) {
+			return;
+		}
+
+		DSJQueryParallel.executor().submit(() -> {
+			try {
+				store(cacheKey, runSearch(search, sessionPool, parallelism), startGeneration);
+			}
+			catch (Exception e) {
+				// keep the stale results
+			}
+			finally {
+				entry.refreshing.set(false);
+			}
+		});
+	}
+
+
+	/**
+	 * Keeps the handles of a search's objects,
+	 * unless the cache was invalidated after the search started.
+	 *
+	 * @param startGeneration - The generation when the search started
+	 */
+	private void store (String cacheKey, List<DSObject> dsObjects, long startGeneration) {
+
+		List<String> handles = new ArrayList<>(dsObjects.size());
+
+		for (DSObject dsObject : dsObjects) {
+			handles.add(dsObject.getHandle().toString());
+		}
+
+		long nowMillis = System.currentTimeMillis();
+		CacheEntry entry = new CacheEntry(handles, nowMillis + timeToLiveMillis, nowMillis + timeToLiveMillis + staleMillis);
+
+		synchronized (entries) {
+
+			if (generation != startGeneration) {
+				return;
+			}
+
+			CacheEntry replacedEntry = entries.put(cacheKey, entry);
+
+			if (replacedEntry != null) {
+				handleCount -= replacedEntry.handles.size();
+			}
+
+			handleCount += handles.size();
+
+			Iterator<CacheEntry> leastRecentlyUsed = entries.values().iterator();
+
+			while (handleCount > maxHandles && leastRecentlyUsed.hasNext()) {
+
+				CacheEntry evictedEntry = leastRecentlyUsed.next();
+
+				handleCount -= evictedEntry.handles.size();
+				leastRecentlyUsed.remove();
+			}
+		}
+	}
+
+
+	/**
+	 * Gets the objects for a list of cached handles.
+	 * Objects that can no longer be retrieved, i.e. because they were deleted, are left out.
+	 */
+	private static List<DSObject> load (List<String> handles, DSJQuerySessionPool sessionPool, int parallelism) throws DSException, DSJQueryException, InterruptedException {
+
+		DSJQueryObjectCache objectCache = sessionPool.getObjectCache();
+
+		DSObject[] dsObjects = new DSObject[handles.size()];
+		List<Integer> missingIndexes = new ArrayList<>();
+
+		for (int index = 0; index < handles.size(); index += 1) {
+
+			dsObjects[index] = (objectCache == null ? null : objectCache.get(handles.get(index)));
+
+			if (dsObjects[index] == null) {
+				missingIndexes.add(index);
+			}
+		}
+
+		if (!missingIndexes.isEmpty()) {
+
+			List<DSObject> retrievedDsObjects = DSJQueryParallel.map(sessionPool, missingIndexes, parallelism, (dsSession, index) -> {
+				try {
+					DSObject retrievedDsObject = dsSession.getObject(new DSHandle(handles.get(index)));
+
+					if (objectCache != null) {
+						objectCache.put(retrievedDsObject, dsSession);
+					}
+
+					return retrievedDsObject;
+				}
+				catch (Exception e) {
+					return null;
+				}
+			});
+
+			for (int missingIndex = 0; missingIndex < missingIndexes.size(); missingIndex += 1) {
+
+				dsObjects[missingIndexes.get(missingIndex)] = retrievedDsObjects.get(missingIndex);
+			}
+		}
+
+		List<DSObject> loadedDsObjects = new ArrayList<>(dsObjects.length);
+
+		for (DSObject dsObject : dsObjects) {
+			if (dsObject != null) {
+				loadedDsObjects.add(dsObject);
+			}
+		}
+
+		return loadedDsObjects;
+	}
+
+
+	/**
+	 * Removes all results from the cache.
+	 * DSJQuery does this when it adds or removes objects.
+	 * @category SETUP
+	 */
+	public void invalidateAll () {
+		synchronized (entries) {
+			entries.clear();
+			handleCount = 0;
+			generation += 1;
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of searches with results currently cached.
+	 */
+	public int size () {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of handles currently cached, across all searches.
+	 */
+	public int getHandleCount () {
+		synchronized (entries) {
+			return handleCount;
+		}
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of searches answered with fresh results.
+	 */
+	public long getHitCount () {
+		return hitCount.get();
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of searches answered with stale results, while the search was repeated in the background.
+	 */
+	public long getStaleHitCount () {
+		return staleHitCount.get();
+	}
+
+
+	/**
+	 * @category SETUP
+	 * @return The number of searches sent to the server because no usable results were cached.
+	 */
+	public long getMissCount () {
+		return missCount.get();
+	}
+}
@@ -0,0 +1,390 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSHandle;
+import com.xerox.docushare.DSObject;
+import com.xerox.docushare.DSResultIterator;
+import com.xerox.docushare.DSSession;
+import com.xerox.docushare.query.DSCollectionScope;
+import com.xerox.docushare.query.DSQuery;
+import com.xerox.docushare.query.DSQueryCondition;
+
+
+/**
+ * A search that has been described, but not yet sent to the DocuShare server.
+ * Filters applied to a pending search are folded into its DSQuery where possible,
+ * so only matching objects are returned by the server.
+ */
+final class DSJQuerySearch {
+
+	/**
+	 * The most Collection handles included in the scope of a single DSQuery.
+	 * Searches beneath more Collections are split into several queries of this size.
+	 */
+	static final int MAX_SCOPE_HANDLES = 100;
+
+
+	/**
+	 * The collections to search beneath, or null to search the whole library.
+	 */
+	final List<DSHandle> scopeHandles;
+
+	/**
+	 * The object class to search for, or null to search for all classes.
+	 */
+	final String className;
+
+	/**
+	 * Predicates the DocuShare server will evaluate.
+	 */
+	final List<DSJQueryPredicate> predicates;
+
+	/**
+	 * Prefetched values to check loosely matched predicates with, or null to read values from the objects.
+	 */
+	private final DSJQueryPropertyCache propertyCache;
+
+
+	DSJQuerySearch (List<DSHandle> scopeHandles, String className) {
+		this(scopeHandles, className, Collections.<DSJQueryPredicate>emptyList(), null);
+	}
+
+
+	private DSJQuerySearch (List<DSHandle> scopeHandles, String className, List<DSJQueryPredicate> predicates, DSJQueryPropertyCache propertyCache) {
+		this.scopeHandles = scopeHandles;
+		this.className = className;
+		this.predicates = predicates;
+		this.propertyCache = propertyCache;
+	}
+
+
+	/**
+	 * Creates a new search, limited to the given object class.
+	 *
+	 * @param newClassName - i.e. "Document"
+	 * @return A new DSJQuerySearch, or null if the search is already limited to a different class.
+	 */
+	DSJQuerySearch withClassName (String newClassName) {
+
+		if (className == null || className.equals(newClassName)) {
+			return new DSJQuerySearch(scopeHandles, newClassName, predicates, propertyCache);
+		}
+		return null;
+	}
+
+
+	/**
+	 * Creates a new search with an additional predicate.
+	 *
+	 * @param predicate     - A predicate where {@link DSJQueryPredicate#isServerExpressible()} is TRUE.
+	 * @param propertyCache - Prefetched values to check the search's results with, or null to read values from the objects
+	 * @return A new DSJQuerySearch
+	 */
+	DSJQuerySearch withPredicate (DSJQueryPredicate predicate, DSJQueryPropertyCache propertyCache) {
+
+		List<DSJQueryPredicate> newPredicates = new ArrayList<>(predicates.size() + 1);
+		newPredicates.addAll(predicates);
+		newPredicates.add(predicate);
+
+		return new DSJQuerySearch(scopeHandles, className, newPredicates, propertyCache);
+	}
+
+
+	/**
+	 * Describes the search for the {@link DSJQueryResultCache}.
+	 * Scopes and predicates are sorted, so searches written in a different order share their results.
+	 *
+	 * @return i.e. "Collection-111,Collection-222|Document|[content_type^='image/']"
+	 */
+	String cacheKey () {
+
+		List<String> scopeKeys = new ArrayList<>();
+
+		if (scopeHandles == null) {
+			scopeKeys.add("*");
+		}
+		else {
+			for (DSHandle scopeHandle : scopeHandles) {
+				scopeKeys.add(scopeHandle.toString());
+			}
+		}
+
+		List<String> predicateKeys = new ArrayList<>(predicates.size());
+
+		for (DSJQueryPredicate predicate : predicates) {
+			predicateKeys.add(predicate.toString());
+		}
+
+		Collections.sort(scopeKeys);
+		Collections.sort(predicateKeys);
+
+		return String.join(",", scopeKeys) + "|" + (className == null ? "*" : className) + "|" + String.join("", predicateKeys);
+	}
+
+
+	/**
+	 * Splits a list of Collection handles into groups for use in DSCollectionScopes,
+	 * so many Collections can be searched with only a few queries.
+	 *
+	 * @param handles
+	 * @return Arrays of at most {@value #MAX_SCOPE_HANDLES} handles
+	 */
+	static List<DSHandle[]> batchScopeHandles (List<DSHandle> handles) {
+		return batchScopeHandles(handles, 1);
+	}
+
+
+	/**
+	 * Splits a list of Collection handles into at least the given number of groups, when there are enough handles,
+	 * so the groups can be searched at the same time.
+	 *
+	 * @param handles
+	 * @param minBatchCount - The number of groups to aim for
+	 * @return Arrays of at most {@value #MAX_SCOPE_HANDLES} handles
+	 */
+	static List<DSHandle[]> batchScopeHandles (List<DSHandle> handles, int minBatchCount) {
+
+		int batchSize = (handles.size() + minBatchCount - 1) / Math.max(1, minBatchCount);
+		batchSize = Math.max(1, Math.min(batchSize, MAX_SCOPE_HANDLES));
+
+		List<DSHandle[]> batches = new ArrayList<>(handles.size() / batchSize + 1);
+
+		for (int fromIndex = 0; fromIndex < handles.size(); fromIndex += batchSize) {
+
+			int toIndex = Math.min(fromIndex + batchSize, handles.size());
+			batches.add(handles.subList(fromIndex, toIndex).toArray(new DSHandle[toIndex - fromIndex]));
+		}
+
+		return batches;
+	}
+
+
+	/**
+	 * Builds a DSQuery with the class scope and all predicates, but no collection scope.
+	 */
+	private DSQuery buildQuery () {
+
+		DSQueryCondition condition = null;
+
+		for (DSJQueryPredicate predicate : predicates) {
+			condition = (condition == null ? predicate.toQueryCondition() : DSQuery.and(condition, predicate.toQueryCondition()));
+		}
+
+		DSQuery query = (condition == null ? new DSQuery() : new DSQuery(condition));
+
+		if (className != null) {
+			query.addClassScope(className);
+		}
+
+		return query;
+	}
+
+
+	/**
+	 * Runs the search, collecting all of the matching objects.
+	 *
+	 * @param dsSession - The session to search with
+	 * @return The matching objects
+	 *
+	 * @throws DSException
+	 */
+	List<DSObject> execute (DSSession dsSession) throws DSException {
+
+		List<DSObject> newDsObjects = new ArrayList<>();
+
+		Cursor cursor = open(dsSession);
+		DSObject item;
+
+		while ((item = cursor.next()) != null) {
+			newDsObjects.add(item);
+		}
+
+		return newDsObjects;
+	}
+
+
+	/**
+	 * Tests if the search has more than one Collection scope,
+	 * which can be searched at the same time with {@link #executeParallel(DSJQuerySessionPool, int)}.
+	 */
+	boolean isParallelizable () {
+		return scopeHandles != null && scopeHandles.size() > 1;
+	}
+
+
+	/**
+	 * Runs the search, spreading the Collection scopes over several pooled DSSessions.
+	 * The objects are grouped by batch of scopes, in the order the batches were made from the scopes.
+	 * Objects found beneath more than one scope are only included the first time.
+	 *
+	 * @param sessionPool - The pool to take the DSSessions from
+	 * @param parallelism - The most searches to run at the same time
+	 * @return The matching objects
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	List<DSObject> executeParallel (DSJQuerySessionPool sessionPool, int parallelism) throws DSException, DSJQueryException, InterruptedException {
+
+		List<DSHandle[]> scopeBatches = batchScopeHandles(scopeHandles, parallelism);
+
+		List<List<DSObject>> batchResults = DSJQueryParallel.map(sessionPool, scopeBatches, parallelism, (dsSession, scopeBatch) -> {
+
+			List<DSObject> batchDsObjects = new ArrayList<>();
+
+			DSQuery query = buildQuery();
+			query.addCollectionScope( new DSCollectionScope(scopeBatch) );
+
+			DSResultIterator result = dsSession.search(query).iterator();
+
+			while (result.hasNext()) {
+				DSObject item = result.nextObject().getObject();
+
+				if (matches(item)) {
+					batchDsObjects.add(item);
+				}
+			}
+
+			return batchDsObjects;
+		});
+
+		List<DSObject> newDsObjects = new ArrayList<>();
+		DSJQueryHandleSet foundObjects = new DSJQueryHandleSet();
+
+		for (List<DSObject> batchDsObjects : batchResults) {
+			for (DSObject item : batchDsObjects) {
+				if (foundObjects.add(item)) {
+					newDsObjects.add(item);
+				}
+			}
+		}
+
+		return newDsObjects;
+	}
+
+
+	/**
+	 * Starts the search, without retrieving any objects yet.
+	 *
+	 * @param dsSession - The session to search with, held by the caller until the cursor is no longer used.
+	 * @return A cursor over the matching objects
+	 */
+	Cursor open (DSSession dsSession) {
+		return new Cursor(dsSession);
+	}
+
+
+	/**
+	 * Retrieves matching objects one at a time.
+	 * Collections are searched in groups, each with a single query.
+	 * Each group is only searched once the objects from the previous group have been used,
+	 * so a caller that stops early avoids the remaining searches.
+	 * Objects linked beneath more than one of the Collections are only returned once.
+	 * A single query returns each object once, so handles are only remembered when there are several groups,
+	 * and a search of the whole library streams in constant memory.
+	 */
+	final class Cursor {
+
+		private final DSSession dsSession;
+		private final Iterator<DSHandle[]> scopeIterator;
+		private final DSJQueryHandleSet returnedObjects;
+
+		private DSResultIterator result = null;
+		private boolean librarySearched = false;
+
+
+		private Cursor (DSSession dsSession) {
+			this.dsSession = dsSession;
+
+			List<DSHandle[]> scopeBatches = (scopeHandles == null ? null : batchScopeHandles(scopeHandles));
+
+			this.scopeIterator = (scopeBatches == null ? null : scopeBatches.iterator());
+			this.returnedObjects = (scopeBatches != null && scopeBatches.size() > 1 ? new DSJQueryHandleSet() : null);
+		}
+
+
+		/**
+		 * Retrieves the next matching object.
+		 *
+		 * @return The next object, or null if there are no more.
+		 *
+		 * @throws DSException
+		 */
+		DSObject next () throws DSException {
+
+			while (true) {
+
+				if (result != null && result.hasNext()) {
+
+					DSObject item = result.nextObject().getObject();
+
+					if (matches(item) && (returnedObjects == null || returnedObjects.add(item))) {
+						return item;
+					}
+					continue;
+				}
+
+				DSQuery query = nextQuery();
+
+				if (query == null) {
+					return null;
+				}
+
+				result = dsSession.search(query).iterator();
+			}
+		}
+
+
+		private DSQuery nextQuery () {
+
+			if (scopeIterator == null) {
+
+				if (librarySearched) {
+					return null;
+				}
+
+				librarySearched = true;
+				return buildQuery();
+			}
+			else if (scopeIterator.hasNext()) {
+
+				DSQuery query = buildQuery();
+				query.addCollectionScope( new DSCollectionScope(scopeIterator.next()) );
+
+				return query;
+			}
+
+			return null;
+		}
+	}
+
+
+	/**
+	 * Confirms server matches against the client-side predicate semantics,
+	 * for text operators where the DocuShare search index may match more loosely than a string comparison.
+	 * Predicates the server evaluates exactly are not checked again, so they cost no extra calls to the server.
+	 */
+	private boolean matches (DSObject item) throws DSException {
+
+		for (DSJQueryPredicate predicate : predicates) {
+
+			if (predicate.isServerExact()) {
+				continue;
+			}
+
+			Object value = (propertyCache == null ? item.get(predicate.propertyName) : propertyCache.get(item, predicate.propertyName));
+
+			if (!predicate.testValue(value)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
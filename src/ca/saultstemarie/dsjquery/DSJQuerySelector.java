@@ -0,0 +1,470 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.saultstemarie.dsjquery.DSJQueryException.DSJQuerySelectorException;
+
+
+/**
+ * A parsed selector, like {@code #Collection-111 > .Document[content_type^='image/'][title~='Logo']}.
+ * Selectors are parsed once, then kept in a bounded cache,
+ * so repeated use of the same selector string skips parsing.
+ * <ul>
+ * <li>{@code *} matches all objects.</li>
+ * <li>{@code #Handle-111} matches an object by handle.</li>
+ * <li>{@code .ClassName} matches objects of a class.</li>
+ * <li>{@code [name='value']} matches attribute values, with {@code =}, {@code ^=}, {@code $=} and {@code ~=}.
+ *     A trailing {@code i}, as in {@code [name='value' i]}, ignores case.</li>
+ * <li>{@code [name>value]} compares numbers and dates, with {@code >}, {@code >=}, {@code <} and {@code <=}.</li>
+ * <li>A space between compound selectors matches objects anywhere beneath the objects on the left,
+ *     and {@code >} matches only their immediate children.</li>
+ * </ul>
+ */
+final class DSJQuerySelector {
+
+	/**
+	 * How a compound selector relates to the objects matched before it.
+	 */
+	enum Combinator {
+		DESCENDANT,
+		CHILD
+	}
+
+
+	/**
+	 * A selector without combinators, like {@code .Document[title~='Logo']}.
+	 */
+	static final class Compound {
+
+		/**
+		 * How the matching objects relate to the objects matched by the previous compound selector,
+		 * or to the current objects for the first one.
+		 */
+		final Combinator combinator;
+
+		/**
+		 * The handle to match, or null to match any handle.
+		 */
+		final String handle;
+
+		/**
+		 * The object class to match, or null to match any class.
+		 */
+		final String className;
+
+		/**
+		 * The attribute predicates to match, in the order they were written.
+		 */
+		final List<DSJQueryPredicate> predicates;
+
+
+		private Compound (Combinator combinator, String handle, String className, List<DSJQueryPredicate> predicates) {
+			this.combinator = combinator;
+			this.handle = handle;
+			this.className = className;
+			this.predicates = predicates;
+		}
+
+
+		/**
+		 * Tests if the compound selector matches all objects, like {@code *}.
+		 */
+		boolean isUniversal () {
+			return handle == null && className == null && predicates.isEmpty();
+		}
+
+
+		/**
+		 * Tests if the compound selector is only a handle, like {@code #Collection-111}.
+		 */
+		boolean isHandleOnly () {
+			return handle != null && className == null && predicates.isEmpty();
+		}
+
+
+		@Override
+		public String toString () {
+
+			StringBuilder selector = new StringBuilder();
+
+			if (handle != null) {
+				selector.append('#').append(handle);
+			}
+
+			if (className != null) {
+				selector.append('.').append(className);
+			}
+
+			for (DSJQueryPredicate predicate : predicates) {
+				selector.append(predicate);
+			}
+
+			return (selector.length() == 0 ? "*" : selector.toString());
+		}
+	}
+
+
+	/**
+	 * The most compiled selectors kept in the cache.
+	 */
+	static final int CACHE_SIZE = 512;
+
+	private static final Map<String, DSJQuerySelector> CACHE = Collections.synchronizedMap(
+			new LinkedHashMap<String, DSJQuerySelector>(64, 0.75f, true) {
+
+				private static final long serialVersionUID = -5180273746152331029L;
+
+				@Override
+				protected boolean removeEldestEntry (Map.Entry<String, DSJQuerySelector> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			});
+
+
+	/**
+	 * The compound selectors, from left to right.
+	 */
+	final List<Compound> compounds;
+
+
+	private DSJQuerySelector (List<Compound> compounds) {
+		this.compounds = compounds;
+	}
+
+
+	/**
+	 * Gets the compiled form of a selector, parsing it if it has not been used recently.
+	 *
+	 * @param selector - i.e. ".Document[title~='Logo']"
+	 * @return The compiled selector
+	 *
+	 * @throws DSJQuerySelectorException
+	 */
+	static DSJQuerySelector compile (String selector) throws DSJQuerySelectorException {
+
+		DSJQuerySelector compiled = CACHE.get(selector);
+
+		if (compiled == null) {
+			compiled = new Parser(selector).parse();
+			CACHE.put(selector, compiled);
+		}
+
+		return compiled;
+	}
+
+
+	/**
+	 * Tests if the selector has a single compound selector, so it can be tested against each object on its own.
+	 */
+	boolean isCompound () {
+		return compounds.size() == 1 && compounds.get(0).combinator == Combinator.DESCENDANT;
+	}
+
+
+	@Override
+	public String toString () {
+
+		StringBuilder selector = new StringBuilder();
+
+		for (Compound compound : compounds) {
+
+			if (compound.combinator == Combinator.CHILD) {
+				selector.append(selector.length() == 0 ? "> " : " > ");
+			}
+			else if (selector.length() > 0) {
+				selector.append(' ');
+			}
+
+			selector.append(compound);
+		}
+
+		return selector.toString();
+	}
+
+
+	/**
+	 * Reads a selector from left to right, one character at a time.
+	 */
+	private static final class Parser {
+
+		private final String selector;
+		private int position = 0;
+
+		private Combinator combinator = Combinator.DESCENDANT;
+		private String handle = null;
+		private String className = null;
+		private List<DSJQueryPredicate> predicates = new ArrayList<>();
+		private int compoundStart = 0;
+
+		private final List<Compound> compounds = new ArrayList<>();
+
+
+		Parser (String selector) {
+			this.selector = selector.trim();
+		}
+
+
+		DSJQuerySelector parse () throws DSJQuerySelectorException {
+
+			if (selector.isEmpty()) {
+				throw error("Empty selector");
+			}
+
+			if (selector.charAt(position) == '>') {
+				position += 1;
+				skipSpaces();
+				combinator = Combinator.CHILD;
+				compoundStart = position;
+			}
+
+			while (position < selector.length()) {
+
+				char token = selector.charAt(position);
+
+				switch (token) {
+
+					case ' ':
+					case '\t':
+					case '\n':
+					case '\r':
+					case '>':
+						readCombinator();
+						break;
+
+					case '*':
+						if (position > compoundStart) {
+							throw error("'*' must come first");
+						}
+						position += 1;
+						break;
+
+					case '#':
+						position += 1;
+						if (handle != null) {
+							throw error("More than one handle");
+						}
+						handle = readName();
+						break;
+
+					case '.':
+						position += 1;
+						String newClassName = readName();
+						if (className != null && !className.equals(newClassName)) {
+							throw error("More than one object class");
+						}
+						className = newClassName;
+						break;
+
+					case '[':
+						position += 1;
+						predicates.add(readPredicate());
+						break;
+
+					default:
+						throw error("Unexpected '" + token + "'");
+				}
+			}
+
+			endCompound();
+
+			return new DSJQuerySelector(Collections.unmodifiableList(compounds));
+		}
+
+
+		/**
+		 * Reads the space or "&gt;" between two compound selectors, and ends the compound selector before it.
+		 */
+		private void readCombinator () throws DSJQuerySelectorException {
+
+			endCompound();
+
+			skipSpaces();
+
+			Combinator newCombinator = Combinator.DESCENDANT;
+
+			if (position < selector.length() && selector.charAt(position) == '>') {
+				newCombinator = Combinator.CHILD;
+				position += 1;
+				skipSpaces();
+			}
+
+			if (position >= selector.length()) {
+				throw error("Selector expected after combinator");
+			}
+
+			combinator = newCombinator;
+			handle = null;
+			className = null;
+			predicates = new ArrayList<>();
+			compoundStart = position;
+		}
+
+
+		private void endCompound () throws DSJQuerySelectorException {
+
+			if (position == compoundStart) {
+				throw error("Selector expected");
+			}
+
+			compounds.add(new Compound(combinator, handle, className, Collections.unmodifiableList(predicates)));
+		}
+
+
+		/**
+		 * Reads a handle, class or attribute name.
+		 */
+		private String readName () throws DSJQuerySelectorException {
+
+			int start = position;
+
+			while (position < selector.length() && isNameChar(selector.charAt(position))) {
+				position += 1;
+			}
+
+			if (position == start) {
+				throw error("Name expected");
+			}
+
+			return selector.substring(start, position);
+		}
+
+
+		/**
+		 * Reads an attribute predicate, after the opening "[".
+		 */
+		private DSJQueryPredicate readPredicate () throws DSJQuerySelectorException {
+
+			skipSpaces();
+			String propertyName = readName();
+			skipSpaces();
+
+			DSJQueryPredicate.Operator operator = readOperator();
+
+			skipSpaces();
+			String propertyValue = readValue();
+			skipSpaces();
+
+			boolean ignoreCase = false;
+
+			if (position < selector.length() && (selector.charAt(position) == 'i' || selector.charAt(position) == 'I')) {
+				ignoreCase = true;
+				position += 1;
+				skipSpaces();
+			}
+
+			if (position >= selector.length() || selector.charAt(position) != ']') {
+				throw error("']' expected");
+			}
+
+			position += 1;
+
+			return new DSJQueryPredicate(propertyName, operator, propertyValue, ignoreCase);
+		}
+
+
+		/**
+		 * Reads the longest operator at the current position, so ">=" is not read as ">".
+		 */
+		private DSJQueryPredicate.Operator readOperator () throws DSJQuerySelectorException {
+
+			DSJQueryPredicate.Operator longestOperator = null;
+
+			for (DSJQueryPredicate.Operator operator : DSJQueryPredicate.Operator.values()) {
+
+				if (selector.startsWith(operator.token, position)
+						&& (longestOperator == null || operator.token.length() > longestOperator.token.length())) {
+					longestOperator = operator;
+				}
+			}
+
+			if (longestOperator == null) {
+				throw error("Operator expected");
+			}
+
+			position += longestOperator.token.length();
+			return longestOperator;
+		}
+
+
+		/**
+		 * Reads a quoted or unquoted attribute value.
+		 * Within quotes, a backslash includes the next character as written.
+		 */
+		private String readValue () throws DSJQuerySelectorException {
+
+			if (position >= selector.length()) {
+				throw error("Value expected");
+			}
+
+			char quote = selector.charAt(position);
+
+			if (quote != '\'' && quote != '"') {
+				return readUnquotedValue();
+			}
+
+			position += 1;
+
+			StringBuilder value = new StringBuilder();
+
+			while (position < selector.length()) {
+
+				char valueChar = selector.charAt(position);
+				position += 1;
+
+				if (valueChar == quote) {
+					return value.toString();
+				}
+				else if (valueChar == '\\' && position < selector.length()) {
+					value.append(selector.charAt(position));
+					position += 1;
+				}
+				else {
+					value.append(valueChar);
+				}
+			}
+
+			throw error("Closing " + quote + " expected");
+		}
+
+
+		/**
+		 * Reads a value without quotes, like a number, up to the next space or "]".
+		 */
+		private String readUnquotedValue () throws DSJQuerySelectorException {
+
+			int start = position;
+
+			while (position < selector.length() && selector.charAt(position) != ']'
+					&& !Character.isWhitespace(selector.charAt(position))) {
+				position += 1;
+			}
+
+			if (position == start) {
+				throw error("Value expected");
+			}
+
+			return selector.substring(start, position);
+		}
+
+
+		private void skipSpaces () {
+			while (position < selector.length() && Character.isWhitespace(selector.charAt(position))) {
+				position += 1;
+			}
+		}
+
+
+		private static boolean isNameChar (char nameChar) {
+			return Character.isLetterOrDigit(nameChar) || nameChar == '-' || nameChar == '_';
+		}
+
+
+		private DSJQuerySelectorException error (String reason) {
+			return new DSJQuerySelectorException(selector, reason + " at position " + position);
+		}
+	}
+}
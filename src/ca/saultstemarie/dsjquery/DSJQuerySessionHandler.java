@@ -1,17 +1,16 @@
 package ca.saultstemarie.dsjquery;
 
-import java.util.Deque;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.Semaphore;
+import java.nio.file.Path;
 
 import com.xerox.docushare.DSException;
-import com.xerox.docushare.DSFactory;
-import com.xerox.docushare.DSServer;
 import com.xerox.docushare.DSSession;
 
+import ca.saultstemarie.dsjquery.DSJQueryException.DSJQuerySessionTimeoutException;
+
 
 /**
  * <b>DSJQuery Session Handler</b>
+ * Configures the shared {@link DSJQuerySessionPool} used by DSJQuery objects created without a pool.
  * @author d.gowans
  *
  */
@@ -30,18 +29,25 @@ public class DSJQuerySessionHandler {
 	public final static String DEFAULT_SESSION_DOMAIN = "DocuShare";
 	
 	
-	private static Deque<DSSession> SESSION_STACK = null;
-	private static Semaphore        SESSION_STACK_AVAILABLE = null;
-	private static int              SESSION_STACK_SIZE = 3;
+	/**
+	 * {@value #DEFAULT_POOL_MAX_SIZE}, the default number of DSSession objects that may be in use at once.
+	 */
+	public final static int DEFAULT_POOL_MAX_SIZE = 3;
 	
 	
-	private static String SERVER_NAME = null;
-	private static int    SERVER_PORT = DEFAULT_SERVER_PORT;
+	private static final DSJQuerySessionPool DEFAULT_POOL = new DSJQuerySessionPool();
 	
 	
-	private static String SESSION_DOMAIN   = DEFAULT_SESSION_DOMAIN;
-	private static String SESSION_USERNAME = null;
-	private static String SESSION_PASSWORD = null;
+	/**
+	 * Gets the shared session pool configured by this class,
+	 * used by DSJQuery objects created without a pool.
+	 * @category SETUP
+	 * 
+	 * @return The shared DSJQuerySessionPool
+	 */
+	public static DSJQuerySessionPool getDefaultPool() {
+		return DEFAULT_POOL;
+	}
 	
 	
 	/**
@@ -54,7 +60,7 @@ public class DSJQuerySessionHandler {
 	 * @throws DSJQueryException
 	 */
 	public static void serverSetup (String serverName) throws DSJQueryException {
-		serverSetup(serverName, DEFAULT_SERVER_PORT);
+		DEFAULT_POOL.serverSetup(serverName);
 	}
 	
 	
@@ -68,16 +74,7 @@ public class DSJQuerySessionHandler {
 	 * @throws DSJQueryException
 	 */
 	public static void serverSetup (String serverName, int serverPort) throws DSJQueryException {
-
-		if (hasSessionsInUse()) {
-			throw new DSJQueryException("DSJQuery currently in use.");
-		}
-		
-		closeOpenSessions();
-		
-		SERVER_NAME = serverName;
-		SERVER_PORT = serverPort;
-		
+		DEFAULT_POOL.serverSetup(serverName, serverPort);
 	}
 	
 	
@@ -88,7 +85,7 @@ public class DSJQuerySessionHandler {
 	 * @return TRUE if the server name has been set.
 	 */
 	public static boolean isServerSetup() {
-		return (SERVER_NAME != null);
+		return DEFAULT_POOL.isServerSetup();
 	}
 	
 		
@@ -103,7 +100,7 @@ public class DSJQuerySessionHandler {
 	 * @throws DSJQueryException
 	 */
 	public static void sessionSetup (String userName, String password) throws DSJQueryException {
-		sessionSetup (DEFAULT_SESSION_DOMAIN, userName, password);
+		DEFAULT_POOL.sessionSetup(userName, password);
 	}
 	
 	
@@ -120,16 +117,7 @@ public class DSJQuerySessionHandler {
 	 * @throws DSJQueryException
 	 */
 	public static void sessionSetup (String userDomain, String userName, String password) throws DSJQueryException {
-
-		if (hasSessionsInUse()) {
-			throw new DSJQueryException("DSJQuery currently in use.");
-		}
-		
-		closeOpenSessions();
-		
-		SESSION_DOMAIN   = userDomain;
-		SESSION_USERNAME = userName;
-		SESSION_PASSWORD = password;
+		DEFAULT_POOL.sessionSetup(userDomain, userName, password);
 	}
 	
 	
@@ -140,59 +128,170 @@ public class DSJQuerySessionHandler {
 	 * @return TRUE if the session login details have been set.
 	 */
 	public static boolean isSessionSetup() {
-		return (SESSION_USERNAME != null && SESSION_PASSWORD != null);
+		return DEFAULT_POOL.isSessionSetup();
 	}
 	
 	
 	/**
-	 * Checks if there are any outstanding DSSession objects in use by DSJQuery.
-	 * If outstanding sessions exist, server and session details cannot be changed.
+	 * Configures the pool of DSSession objects shared by DSJQuery.
 	 * @category SETUP
 	 * 
-	 * @return TRUE if there are any DQJQuery actions holding onto and DSSession objects.
+	 * @param minSize              - The fewest sessions to keep open when closing idle sessions.
+	 * @param maxSize              - The most sessions that may be in use at once. Defaults to {@value #DEFAULT_POOL_MAX_SIZE}.
+	 * @param acquireTimeoutMillis - How long to wait for a free session before throwing a DSJQuerySessionTimeoutException.
+	 *                               0 to wait indefinitely, the default.
+	 * @param idleTimeoutMillis    - How long a session may sit unused before it is closed.
+	 *                               0 to keep idle sessions open, the default.
+	 * 
+	 * @throws DSJQueryException
 	 */
-	private static boolean hasSessionsInUse() {
-		
-		if (SESSION_STACK_AVAILABLE != null &&
-				SESSION_STACK_AVAILABLE.availablePermits() < SESSION_STACK_SIZE) {
-			return true;
-		}
-		return false;
+	public static void poolSetup (int minSize, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis) throws DSJQueryException {
+		DEFAULT_POOL.poolSetup(minSize, maxSize, acquireTimeoutMillis, idleTimeoutMillis);
+	}
+	
+	
+	/**
+	 * Checks idle pooled sessions in the background.
+	 * Sessions closed by the server are replaced, and idle sessions past the idle timeout are closed,
+	 * so they are not discovered at the time a query needs them.
+	 * @category SETUP
+	 * 
+	 * @param keepAliveIntervalMillis - How often to check idle sessions, or 0 to stop checking.
+	 */
+	public static void keepAliveSetup (long keepAliveIntervalMillis) {
+		DEFAULT_POOL.keepAliveSetup(keepAliveIntervalMillis);
+	}
+	
+	
+	/**
+	 * Keeps objects selected by handle, i.e. {@code new DSJQuery("#Collection-111")}, so they are only retrieved once.
+	 * @category SETUP
+	 * 
+	 * @param maxEntries       - The most objects to keep. The least recently used objects are removed first. 0 to disable the cache.
+	 * @param timeToLiveMillis - How long an object is kept after it is retrieved.
+	 */
+	public static void objectCacheSetup (int maxEntries, long timeToLiveMillis) {
+		DEFAULT_POOL.objectCacheSetup(maxEntries, timeToLiveMillis);
+	}
+	
+	
+	/**
+	 * Gets the object cache, for its hit and miss counts, or to remove objects changed outside of DSJQuery.
+	 * @category SETUP
+	 * 
+	 * @return The object cache, or null if it is not enabled.
+	 */
+	public static DSJQueryObjectCache getObjectCache () {
+		return DEFAULT_POOL.getObjectCache();
+	}
+	
+	
+	/**
+	 * Keeps the handles found by searches, i.e. {@code new DSJQuery("#Collection-111 .Document")},
+	 * so queries using {@link DSJQuery#useResultCache(boolean)} do not repeat the same search.
+	 * @category SETUP
+	 * 
+	 * @param maxHandles       - The most handles to keep, across all searches. The least recently used searches are removed first. 0 to disable the cache.
+	 * @param timeToLiveMillis - How long a search's handles are used before the search is repeated.
+	 * @param staleMillis      - How long expired handles may still be used while the search is repeated in the background.
+	 *                           0 to always wait for the repeated search.
+	 */
+	public static void resultCacheSetup (int maxHandles, long timeToLiveMillis, long staleMillis) {
+		DEFAULT_POOL.resultCacheSetup(maxHandles, timeToLiveMillis, staleMillis);
+	}
+	
+	
+	/**
+	 * Gets the result cache, for its hit and miss counts, or to remove results after changes made outside of DSJQuery.
+	 * @category SETUP
+	 * 
+	 * @return The result cache, or null if it is not enabled.
+	 */
+	public static DSJQueryResultCache getResultCache () {
+		return DEFAULT_POOL.getResultCache();
+	}
+	
+	
+	/**
+	 * Keeps Document content read with {@link DSJQuery#openContent()} in a local directory,
+	 * so the same content is only downloaded again once the Document changes.
+	 * @category SETUP
+	 * 
+	 * @param directory - Where to keep the content. Created if it does not exist. Null to disable the cache.
+	 * @param maxBytes  - The most bytes to keep. The least recently read files are removed first.
+	 * 
+	 * @throws DSJQueryException
+	 */
+	public static void contentCacheSetup (Path directory, long maxBytes) throws DSJQueryException {
+		DEFAULT_POOL.contentCacheSetup(directory, maxBytes);
+	}
+	
+	
+	/**
+	 * Gets the content cache, for its hit and miss counts, or to remove all cached content.
+	 * @category SETUP
+	 * 
+	 * @return The content cache, or null if it is not enabled.
+	 */
+	public static DSJQueryContentCache getContentCache () {
+		return DEFAULT_POOL.getContentCache();
+	}
+	
+	
+	/**
+	 * Keeps the parent Collections of visited objects, so {@link DSJQuery#parents()}, {@link DSJQuery#parentsUntil(String)}
+	 * and {@link DSJQuery#closest(String)} only retrieve each Collection's parents once.
+	 * @category SETUP
+	 * 
+	 * @param maxEntries       - The most objects to keep. The least recently used objects are removed first. 0 to disable the cache.
+	 * @param timeToLiveMillis - How long an object's parents are kept before they are retrieved again.
+	 */
+	public static void hierarchyCacheSetup (int maxEntries, long timeToLiveMillis) {
+		DEFAULT_POOL.hierarchyCacheSetup(maxEntries, timeToLiveMillis);
+	}
+	
+	
+	/**
+	 * Gets the hierarchy cache, for its hit and miss counts, or to remove objects moved outside of DSJQuery.
+	 * @category SETUP
+	 * 
+	 * @return The hierarchy cache, or null if it is not enabled.
+	 */
+	public static DSJQueryHierarchyCache getHierarchyCache () {
+		return DEFAULT_POOL.getHierarchyCache();
+	}
+	
+	
+	/**
+	 * Opens DSSession objects ahead of time, all at once,
+	 * so the first queries do not each wait to connect and log in.
+	 * Call after {@link #serverSetup(String, int)} and {@link #sessionSetup(String, String, String)}.
+	 * @category SETUP
+	 * 
+	 * @param sessionCount - The number of sessions to have open. Limited to the maximum pool size.
+	 * @return The number of sessions opened
+	 * 
+	 * @throws DSException
+	 * @throws InterruptedException
+	 */
+	public static int prewarm (int sessionCount) throws DSException, InterruptedException {
+		return DEFAULT_POOL.prewarm(sessionCount);
 	}
 	
 	
 	/**
 	 * Gets a DSSession object from a pool of available objects.
+	 * If all sessions are in use, waits for one to be returned, up to the acquire timeout set with
+	 * {@link #poolSetup(int, int, long, long)}.
 	 * 
 	 * @return A connected DSSession object.
 	 * 
 	 * @throws InterruptedException
 	 * @throws DSException
+	 * @throws DSJQuerySessionTimeoutException
 	 */
-	public static synchronized DSSession getSession() throws InterruptedException, DSException {
-		
-		if (SESSION_STACK == null) {
-			SESSION_STACK = new LinkedBlockingDeque<>(SESSION_STACK_SIZE);
-			SESSION_STACK_AVAILABLE = new Semaphore(SESSION_STACK_SIZE, true);
-		}
-		
-		SESSION_STACK_AVAILABLE.acquire();
-		
-		if (SESSION_STACK.isEmpty()) {
-			DSServer dsServer = DSFactory.createServer(SERVER_NAME, SERVER_PORT);
-			DSSession dsSession = dsServer.createSession(SESSION_DOMAIN, SESSION_USERNAME, SESSION_PASSWORD);
-			return dsSession;
-			
-		} else {
-			DSSession dsSession = SESSION_STACK.pop();
-			
-			if (dsSession.isClosed()) {
-				DSServer dsServer = DSFactory.createServer(SERVER_NAME, SERVER_PORT);
-				dsSession = dsServer.createSession(SESSION_DOMAIN, SESSION_USERNAME, SESSION_PASSWORD);
-			}
-			
-			return dsSession;
-		}
+	public static DSSession getSession() throws InterruptedException, DSException {
+		return DEFAULT_POOL.getSession();
 	}
 	
 	
@@ -201,11 +300,8 @@ public class DSJQuerySessionHandler {
 	 * 
 	 * @param dsSession - A DSSession object that will no longer be used by the thread returning it.
 	 */
-	public static synchronized void returnSession(DSSession dsSession) {
-		if (dsSession != null) {
-			SESSION_STACK.push(dsSession);
-		}
-		SESSION_STACK_AVAILABLE.release();
+	public static void returnSession(DSSession dsSession) {
+		DEFAULT_POOL.returnSession(dsSession);
 	}
 
 	
@@ -213,23 +309,7 @@ public class DSJQuerySessionHandler {
 	 * Closes all DSSession objects currently queued.
 	 * This method should be called when DSJQuery is done being used, or won't be used for a while.
 	 */
-	public static synchronized void closeOpenSessions() {
-		
-		if (SESSION_STACK == null) {
-			return;
-		}
-		
-		while (!SESSION_STACK.isEmpty()) {
-			try {
-				DSSession dsSession = SESSION_STACK.pop();
-				DSServer dsServer = dsSession.getServer();
-				
-				dsSession.close();
-				dsServer.close();
-			}
-			catch (Exception e) {
-				// ignore
-			}
-		}
+	public static void closeOpenSessions() {
+		DEFAULT_POOL.closeOpenSessions();
 	}
 }
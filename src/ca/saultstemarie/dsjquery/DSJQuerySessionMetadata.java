@@ -0,0 +1,65 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.xerox.docushare.DSClass;
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSLoginPrincipal;
+import com.xerox.docushare.DSSession;
+import com.xerox.docushare.property.DSProperties;
+
+
+/**
+ * Class definitions and the login principal for one DSSession, retrieved once and reused,
+ * so creating many objects does not ask the server for the same metadata each time.
+ * Kept by {@link DSJQuerySessionPool#getSessionMetadata(DSSession)} for as long as the session is in use.
+ */
+final class DSJQuerySessionMetadata {
+
+	private final ConcurrentHashMap<String, DSClass> dsClasses = new ConcurrentHashMap<>();
+	private volatile DSLoginPrincipal loginPrincipal = null;
+
+
+	/**
+	 * Creates a new, empty set of properties for an object class.
+	 * The class definition is only retrieved the first time.
+	 *
+	 * @param dsSession - The session this metadata belongs to
+	 * @param className - i.e. DSDocument.classname
+	 * @return A new prototype, which may be changed freely
+	 *
+	 * @throws DSException
+	 */
+	DSProperties createPrototype (DSSession dsSession, String className) throws DSException {
+
+		DSClass dsClass = dsClasses.get(className);
+
+		if (dsClass == null) {
+			dsClass = dsSession.getDSClass(className);
+			dsClasses.put(className, dsClass);
+		}
+
+		return dsClass.createPrototype();
+	}
+
+
+	/**
+	 * Gets the user the session is logged in as, retrieving it the first time.
+	 *
+	 * @param dsSession - The session this metadata belongs to
+	 * @return The login principal
+	 *
+	 * @throws DSException
+	 */
+	DSLoginPrincipal getLoginPrincipal (DSSession dsSession) throws DSException {
+
+		DSLoginPrincipal currentLoginPrincipal = loginPrincipal;
+
+		if (currentLoginPrincipal == null) {
+			currentLoginPrincipal = (DSLoginPrincipal)dsSession.getObject(dsSession.getLoginPrincipalHandle());
+			loginPrincipal = currentLoginPrincipal;
+		}
+
+		return currentLoginPrincipal;
+	}
+}
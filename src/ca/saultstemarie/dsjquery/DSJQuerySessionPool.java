@@ -0,0 +1,581 @@
+package ca.saultstemarie.dsjquery;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSFactory;
+import com.xerox.docushare.DSServer;
+import com.xerox.docushare.DSSession;
+
+import ca.saultstemarie.dsjquery.DSJQueryException.DSJQuerySessionTimeoutException;
+
+
+/**
+ * <b>DSJQuery Session Pool</b>
+ * The DocuShare server details, login details, and pooled DSSession objects used by DSJQuery.
+ * <br>
+ * Each pool is independent, so DSJQuery objects connected to different servers,
+ * or logged in as different users, can be used at the same time.
+ * Pass a pool to a DSJQuery constructor, i.e. {@code new DSJQuery(archivePool, "#Collection-111")}.
+ * DSJQuery objects created without a pool use the shared pool configured through {@link DSJQuerySessionHandler}.
+ *
+ * <pre>
+ * DSJQuerySessionPool archivePool = new DSJQuerySessionPool();
+ * archivePool.serverSetup("archive.example.com");
+ * archivePool.sessionSetup("archiveUser", "password");
+ * </pre>
+ */
+public class DSJQuerySessionPool {
+
+	private volatile DSJQuerySessionStack sessionStack = null;
+
+	private int  poolMinSize = 0;
+	private int  poolMaxSize = DSJQuerySessionHandler.DEFAULT_POOL_MAX_SIZE;
+	private long poolAcquireTimeoutMillis = 0;
+	private long poolIdleTimeoutMillis = 0;
+	private long poolKeepAliveMillis = 0;
+
+	private volatile DSJQueryObjectCache objectCache = null;
+	private volatile DSJQueryResultCache resultCache = null;
+	private volatile DSJQueryContentCache contentCache = null;
+	private volatile DSJQueryHierarchyCache hierarchyCache = null;
+
+	/**
+	 * Metadata for each session, dropped once a session is closed and no longer referenced.
+	 */
+	private final Map<DSSession, DSJQuerySessionMetadata> sessionMetadata = Collections.synchronizedMap(new WeakHashMap<>());
+
+
+	/**
+	 * One connection to the DocuShare server, shared by all pooled sessions.
+	 */
+	private DSServer     sharedServer = null;
+	private final Object sharedServerLock = new Object();
+
+
+	private volatile String serverName = null;
+	private volatile int    serverPort = DSJQuerySessionHandler.DEFAULT_SERVER_PORT;
+
+
+	private volatile String sessionDomain   = DSJQuerySessionHandler.DEFAULT_SESSION_DOMAIN;
+	private volatile String sessionUserName = null;
+	private volatile String sessionPassword = null;
+
+
+	/**
+	 * Creates a new session pool.
+	 * Server and session details must be set before it is used.
+	 * @category SETUP
+	 */
+	public DSJQuerySessionPool () {
+	}
+
+
+	/**
+	 * Creates a new session pool with complete server and session details.
+	 * @category SETUP
+	 *
+	 * @param serverName - DocuShare server name
+	 * @param serverPort - DocuShare server port
+	 * @param userDomain - The user domain name
+	 * @param userName   - The user name
+	 * @param password   - The password
+	 */
+	public DSJQuerySessionPool (String serverName, int serverPort, String userDomain, String userName, String password) {
+		this.serverName = serverName;
+		this.serverPort = serverPort;
+		this.sessionDomain = userDomain;
+		this.sessionUserName = userName;
+		this.sessionPassword = password;
+	}
+
+
+	/**
+	 * Sets the DocuShare server details.
+	 * Uses the default DocuShare port number.
+	 * @category SETUP
+	 *
+	 * @param serverName - DocuShare server name
+	 *
+	 * @throws DSJQueryException
+	 */
+	public void serverSetup (String serverName) throws DSJQueryException {
+		serverSetup(serverName, DSJQuerySessionHandler.DEFAULT_SERVER_PORT);
+	}
+
+
+	/**
+	 * Sets complete DocuShare server details.
+	 * @category SETUP
+	 *
+	 * @param serverName - DocuShare server name
+	 * @param serverPort - DocuShare server port
+	 *
+	 * @throws DSJQueryException
+	 */
+	public synchronized void serverSetup (String serverName, int serverPort) throws DSJQueryException {
+
+		if (hasSessionsInUse()) {
+			throw new DSJQueryException("DSJQuery currently in use.");
+		}
+
+		closeOpenSessions();
+
+		this.serverName = serverName;
+		this.serverPort = serverPort;
+	}
+
+
+	/**
+	 * Tests if the DocuShare server details have been set.
+	 * @category SETUP
+	 *
+	 * @return TRUE if the server name has been set.
+	 */
+	public boolean isServerSetup() {
+		return (serverName != null);
+	}
+
+
+	/**
+	 * Sets the session login details.
+	 * Uses the default {@value DSJQuerySessionHandler#DEFAULT_SESSION_DOMAIN} domain.
+	 * @category SETUP
+	 *
+	 * @param userName - DocuShare user name
+	 * @param password - DocuShare password
+	 *
+	 * @throws DSJQueryException
+	 */
+	public void sessionSetup (String userName, String password) throws DSJQueryException {
+		sessionSetup (DSJQuerySessionHandler.DEFAULT_SESSION_DOMAIN, userName, password);
+	}
+
+
+	/**
+	 * Sets complete session login details.
+	 * Note that this user must have read permissions for all objects it queries.
+	 * This user will also be associated with any modifications it makes through DSJQuery.
+	 * @category SETUP
+	 *
+	 * @param userDomain - The user domain name
+	 * @param userName   - The user name
+	 * @param password   - The password
+	 *
+	 * @throws DSJQueryException
+	 */
+	public synchronized void sessionSetup (String userDomain, String userName, String password) throws DSJQueryException {
+
+		if (hasSessionsInUse()) {
+			throw new DSJQueryException("DSJQuery currently in use.");
+		}
+
+		closeOpenSessions();
+
+		this.sessionDomain   = userDomain;
+		this.sessionUserName = userName;
+		this.sessionPassword = password;
+	}
+
+
+	/**
+	 * Tests if the DocuShare session login details have been set.
+	 * @category SETUP
+	 *
+	 * @return TRUE if the session login details have been set.
+	 */
+	public boolean isSessionSetup() {
+		return (sessionUserName != null && sessionPassword != null);
+	}
+
+
+	/**
+	 * Configures the number of DSSession objects in the pool.
+	 * @category SETUP
+	 *
+	 * @param minSize              - The fewest sessions to keep open when closing idle sessions.
+	 * @param maxSize              - The most sessions that may be in use at once. Defaults to {@value DSJQuerySessionHandler#DEFAULT_POOL_MAX_SIZE}.
+	 * @param acquireTimeoutMillis - How long to wait for a free session before throwing a DSJQuerySessionTimeoutException.
+	 *                               0 to wait indefinitely, the default.
+	 * @param idleTimeoutMillis    - How long a session may sit unused before it is closed.
+	 *                               0 to keep idle sessions open, the default.
+	 *
+	 * @throws DSJQueryException
+	 */
+	public synchronized void poolSetup (int minSize, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis) throws DSJQueryException {
+
+		if (hasSessionsInUse()) {
+			throw new DSJQueryException("DSJQuery currently in use.");
+		}
+
+		closeOpenSessions();
+
+		if (sessionStack != null) {
+			sessionStack.stopKeepAlive();
+		}
+
+		poolMinSize = minSize;
+		poolMaxSize = maxSize;
+		poolAcquireTimeoutMillis = acquireTimeoutMillis;
+		poolIdleTimeoutMillis = idleTimeoutMillis;
+
+		sessionStack = null;
+	}
+
+
+	/**
+	 * Checks idle pooled sessions in the background.
+	 * Sessions closed by the server are replaced, and idle sessions past the idle timeout are closed,
+	 * so they are not discovered at the time a query needs them.
+	 * @category SETUP
+	 *
+	 * @param keepAliveIntervalMillis - How often to check idle sessions, or 0 to stop checking.
+	 */
+	public synchronized void keepAliveSetup (long keepAliveIntervalMillis) {
+
+		poolKeepAliveMillis = keepAliveIntervalMillis;
+
+		if (sessionStack != null) {
+			sessionStack.startKeepAlive(keepAliveIntervalMillis);
+		}
+	}
+
+
+	/**
+	 * Keeps objects selected by handle, i.e. {@code new DSJQuery(pool, "#Collection-111")}, so they are only retrieved once.
+	 * Replaces any existing cache.
+	 * @category SETUP
+	 *
+	 * @param maxEntries       - The most objects to keep. The least recently used objects are removed first. 0 to disable the cache.
+	 * @param timeToLiveMillis - How long an object is kept after it is retrieved.
+	 */
+	public void objectCacheSetup (int maxEntries, long timeToLiveMillis) {
+		objectCache = (maxEntries > 0 && timeToLiveMillis > 0 ? new DSJQueryObjectCache(maxEntries, timeToLiveMillis) : null);
+	}
+
+
+	/**
+	 * Gets the object cache, for its hit and miss counts, or to remove objects changed outside of DSJQuery.
+	 * @category SETUP
+	 *
+	 * @return The object cache, or null if it is not enabled.
+	 */
+	public DSJQueryObjectCache getObjectCache () {
+		return objectCache;
+	}
+
+
+	/**
+	 * Keeps the handles found by searches, i.e. {@code new DSJQuery(pool, "#Collection-111 .Document")},
+	 * so queries using {@link DSJQuery#useResultCache(boolean)} do not repeat the same search.
+	 * Replaces any existing cache.
+	 * @category SETUP
+	 *
+	 * @param maxHandles       - The most handles to keep, across all searches. The least recently used searches are removed first. 0 to disable the cache.
+	 * @param timeToLiveMillis - How long a search's handles are used before the search is repeated.
+	 * @param staleMillis      - How long expired handles may still be used while the search is repeated in the background.
+	 *                           0 to always wait for the repeated search.
+	 */
+	public void resultCacheSetup (int maxHandles, long timeToLiveMillis, long staleMillis) {
+		resultCache = (maxHandles > 0 && timeToLiveMillis > 0 ? new DSJQueryResultCache(maxHandles, timeToLiveMillis, Math.max(0, staleMillis)) : null);
+	}
+
+
+	/**
+	 * Gets the result cache, for its hit and miss counts, or to remove results after changes made outside of DSJQuery.
+	 * @category SETUP
+	 *
+	 * @return The result cache, or null if it is not enabled.
+	 */
+	public DSJQueryResultCache getResultCache () {
+		return resultCache;
+	}
+
+
+	/**
+	 * Keeps Document content read with {@link DSJQuery#openContent()} in a local directory,
+	 * so the same content is only downloaded again once the Document changes.
+	 * Replaces any existing cache. Files already in the directory are reused.
+	 * @category SETUP
+	 *
+	 * @param directory - Where to keep the content. Created if it does not exist. Null to disable the cache.
+	 * @param maxBytes  - The most bytes to keep. The least recently read files are removed first.
+	 *
+	 * @throws DSJQueryException
+	 */
+	public void contentCacheSetup (Path directory, long maxBytes) throws DSJQueryException {
+
+		if (directory == null || maxBytes <= 0) {
+			contentCache = null;
+			return;
+		}
+
+		try {
+			contentCache = new DSJQueryContentCache(directory, maxBytes);
+		}
+		catch (IOException e) {
+			throw new DSJQueryException("Content cache directory could not be used: " + directory.toAbsolutePath() + " (" + e.getMessage() + ")");
+		}
+	}
+
+
+	/**
+	 * Gets the content cache, for its hit and miss counts, or to remove all cached content.
+	 * @category SETUP
+	 *
+	 * @return The content cache, or null if it is not enabled.
+	 */
+	public DSJQueryContentCache getContentCache () {
+		return contentCache;
+	}
+
+
+	/**
+	 * Keeps the parent handles of visited objects, so {@link DSJQuery#parents()}, {@link DSJQuery#parentsUntil(String)}
+	 * and {@link DSJQuery#closest(String)} only retrieve each Collection's parents once.
+	 * Replaces any existing cache.
+	 * @category SETUP
+	 *
+	 * @param maxEntries       - The most objects to keep. The least recently used objects are removed first. 0 to disable the cache.
+	 * @param timeToLiveMillis - How long an object's parents are kept before they are retrieved again.
+	 */
+	public void hierarchyCacheSetup (int maxEntries, long timeToLiveMillis) {
+		hierarchyCache = (maxEntries > 0 && timeToLiveMillis > 0 ? new DSJQueryHierarchyCache(maxEntries, timeToLiveMillis) : null);
+	}
+
+
+	/**
+	 * Gets the hierarchy cache, for its hit and miss counts, or to remove objects moved outside of DSJQuery.
+	 * @category SETUP
+	 *
+	 * @return The hierarchy cache, or null if it is not enabled.
+	 */
+	public DSJQueryHierarchyCache getHierarchyCache () {
+		return hierarchyCache;
+	}
+
+
+	/**
+	 * Opens DSSession objects ahead of time, all at once,
+	 * so the first queries do not each wait to connect and log in.
+	 * Call after {@link #serverSetup(String, int)} and {@link #sessionSetup(String, String, String)}.
+	 * @category SETUP
+	 *
+	 * @param sessionCount - The number of sessions to have open. Limited to the maximum pool size.
+	 * @return The number of sessions opened
+	 *
+	 * @throws DSException
+	 * @throws InterruptedException
+	 */
+	public int prewarm (int sessionCount) throws DSException, InterruptedException {
+		return getSessionStack().prewarm(sessionCount);
+	}
+
+
+	/**
+	 * Checks if there are any outstanding DSSession objects in use by DSJQuery.
+	 * If outstanding sessions exist, server and session details cannot be changed.
+	 * @category SETUP
+	 *
+	 * @return TRUE if there are any DQJQuery actions holding onto and DSSession objects.
+	 */
+	public boolean hasSessionsInUse() {
+
+		DSJQuerySessionStack currentStack = sessionStack;
+
+		return (currentStack != null && currentStack.hasSessionsInUse());
+	}
+
+
+	/**
+	 * Gets the session stack, creating it on first use.
+	 * Only stack creation is synchronized, so callers waiting for a session do not block each other.
+	 */
+	private DSJQuerySessionStack getSessionStack() {
+
+		DSJQuerySessionStack currentStack = sessionStack;
+
+		if (currentStack == null) {
+			synchronized (this) {
+
+				currentStack = sessionStack;
+
+				if (currentStack == null) {
+					currentStack = new DSJQuerySessionStack(this::createSession, this::sessionClosed,
+							poolMinSize, poolMaxSize, poolAcquireTimeoutMillis, poolIdleTimeoutMillis);
+					currentStack.startKeepAlive(poolKeepAliveMillis);
+
+					sessionStack = currentStack;
+				}
+			}
+		}
+
+		return currentStack;
+	}
+
+
+	/**
+	 * Removes cached objects retrieved with a session the pool has closed,
+	 * as they can no longer be used.
+	 */
+	private void sessionClosed (DSSession dsSession) {
+
+		DSJQueryObjectCache currentObjectCache = objectCache;
+
+		if (currentObjectCache != null) {
+			currentObjectCache.invalidateSession(dsSession);
+		}
+	}
+
+
+	/**
+	 * Opens a new DSSession with the current server and session details,
+	 * using the shared DSServer connection.
+	 */
+	private DSSession createSession() throws DSException {
+
+		DSServer dsServer = getServer();
+
+		try {
+			return dsServer.createSession(sessionDomain, sessionUserName, sessionPassword);
+		}
+		catch (DSException e) {
+
+			DSJQuerySessionStack currentStack = sessionStack;
+
+			/*
+			 * The shared connection may have gone stale, so reconnect once before giving up.
+			 * Every open session runs on the shared connection, so a failure with sessions open,
+			 * like a bad password or a session limit, is not taken as a stale connection.
+			 */
+			if (currentStack != null && currentStack.hasOpenSessions()) {
+				throw e;
+			}
+
+			closeServer(dsServer);
+			return getServer().createSession(sessionDomain, sessionUserName, sessionPassword);
+		}
+	}
+
+
+	/**
+	 * Gets the shared DSServer connection, connecting on first use.
+	 */
+	private DSServer getServer() throws DSException {
+
+		synchronized (sharedServerLock) {
+			if (sharedServer == null) {
+				sharedServer = DSFactory.createServer(serverName, serverPort);
+			}
+			return sharedServer;
+		}
+	}
+
+
+	/**
+	 * Closes a DSServer connection, and stops sharing it if it is the shared one.
+	 */
+	private void closeServer(DSServer dsServer) {
+
+		synchronized (sharedServerLock) {
+			if (sharedServer == dsServer) {
+				sharedServer = null;
+			}
+		}
+
+		try {
+			dsServer.close();
+		}
+		catch (Exception e) {
+			// ignore
+		}
+	}
+
+
+	/**
+	 * Gets a DSSession object from the pool.
+	 * If all sessions are in use, waits for one to be returned, up to the acquire timeout set with
+	 * {@link #poolSetup(int, int, long, long)}.
+	 *
+	 * @return A connected DSSession object.
+	 *
+	 * @throws InterruptedException
+	 * @throws DSException
+	 * @throws DSJQuerySessionTimeoutException
+	 */
+	public DSSession getSession() throws InterruptedException, DSException {
+		return getSessionStack().acquire();
+	}
+
+
+	/**
+	 * @return The most sessions that may be in use at once.
+	 */
+	int getMaxSize() {
+		return getSessionStack().getMaxSize();
+	}
+
+
+	/**
+	 * Gets the class definitions and login principal cached for a session.
+	 *
+	 * @param dsSession - A session taken from this pool
+	 * @return The session's metadata, empty the first time the session is used
+	 */
+	DSJQuerySessionMetadata getSessionMetadata (DSSession dsSession) {
+		return sessionMetadata.computeIfAbsent(dsSession, newDsSession -> new DSJQuerySessionMetadata());
+	}
+
+
+	/**
+	 * Returns a DSSession object to the pool for other threads to use.
+	 *
+	 * @param dsSession - A DSSession object that will no longer be used by the thread returning it.
+	 */
+	public void returnSession(DSSession dsSession) {
+
+		DSJQuerySessionStack currentStack = sessionStack;
+
+		if (currentStack != null) {
+			currentStack.release(dsSession);
+		}
+	}
+
+
+	/**
+	 * Closes all DSSession objects currently queued.
+	 * Cached objects are removed, as they may have been retrieved with the closed sessions.
+	 * This method should be called when the pool is done being used, or won't be used for a while.
+	 */
+	public void closeOpenSessions() {
+
+		DSJQueryObjectCache currentObjectCache = objectCache;
+
+		if (currentObjectCache != null) {
+			currentObjectCache.invalidateAll();
+		}
+
+		DSJQuerySessionStack currentStack = sessionStack;
+
+		if (currentStack != null) {
+			currentStack.closeIdleSessions();
+		}
+
+		if (!hasSessionsInUse()) {
+
+			DSServer dsServer;
+
+			synchronized (sharedServerLock) {
+				dsServer = sharedServer;
+			}
+
+			if (dsServer != null) {
+				closeServer(dsServer);
+			}
+		}
+	}
+}
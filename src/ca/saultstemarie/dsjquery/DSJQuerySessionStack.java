@@ -0,0 +1,419 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSSession;
+
+import ca.saultstemarie.dsjquery.DSJQueryException.DSJQuerySessionTimeoutException;
+
+
+/**
+ * The pooled DSSession objects behind a {@link DSJQuerySessionPool}.
+ * <ul>
+ * <li>At most {@code maxSize} sessions are handed out at once. Callers wait for a free session,
+ * up to the acquire timeout.</li>
+ * <li>No lock is held while waiting, so returning a session is never blocked by a waiting caller.</li>
+ * <li>Sessions left idle longer than the idle timeout are closed,
+ * while keeping at least {@code minSize} sessions open.</li>
+ * <li>Sessions can be opened ahead of time with {@link #prewarm(int)},
+ * and idle sessions can be checked in the background with {@link #startKeepAlive(long)}.</li>
+ * </ul>
+ */
+final class DSJQuerySessionStack {
+
+	/**
+	 * Opens a new DSSession when the pool has none to reuse.
+	 */
+	interface SessionFactory {
+		DSSession createSession () throws DSException;
+	}
+
+
+	/**
+	 * Told when the pool closes or discards a DSSession,
+	 * so objects retrieved with the session are no longer handed out.
+	 */
+	interface SessionListener {
+		void sessionClosed (DSSession dsSession);
+	}
+
+
+	private static final class PooledSession {
+
+		final DSSession dsSession;
+		final long idleSinceMillis;
+
+		PooledSession (DSSession dsSession) {
+			this.dsSession = dsSession;
+			this.idleSinceMillis = System.currentTimeMillis();
+		}
+	}
+
+
+	/**
+	 * Runs the keep-alive checks for all pools.
+	 */
+	private static final ScheduledExecutorService KEEP_ALIVE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "dsjquery-keep-alive");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+
+	private final SessionFactory sessionFactory;
+	private final SessionListener sessionListener;
+
+	private final int  minSize;
+	private final int  maxSize;
+	private final long acquireTimeoutMillis;
+	private final long idleTimeoutMillis;
+
+	/**
+	 * Idle sessions, most recently returned first.
+	 */
+	private final Deque<PooledSession> idleSessions = new ConcurrentLinkedDeque<>();
+
+	/**
+	 * One permit for each session that may be handed out.
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * The number of open sessions, idle or in use.
+	 */
+	private final AtomicInteger openCount = new AtomicInteger();
+
+	private ScheduledFuture<?> keepAliveTask = null;
+
+
+	/**
+	 * @param sessionFactory       - Opens new sessions
+	 * @param sessionListener      - Told when a session is closed
+	 * @param minSize              - The fewest open sessions to keep when evicting idle sessions
+	 * @param maxSize              - The most sessions that may be in use at once
+	 * @param acquireTimeoutMillis - How long to wait for a free session, or 0 to wait indefinitely
+	 * @param idleTimeoutMillis    - How long a session may sit idle before it is closed, or 0 to keep idle sessions open
+	 */
+	DSJQuerySessionStack (SessionFactory sessionFactory, SessionListener sessionListener, int minSize, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis) {
+
+		this.sessionFactory = sessionFactory;
+		this.sessionListener = sessionListener;
+
+		this.maxSize = Math.max(1, maxSize);
+		this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+		this.acquireTimeoutMillis = Math.max(0, acquireTimeoutMillis);
+		this.idleTimeoutMillis = Math.max(0, idleTimeoutMillis);
+
+		this.permits = new Semaphore(this.maxSize, true);
+	}
+
+
+	int getMinSize () {
+		return minSize;
+	}
+
+
+	int getMaxSize () {
+		return maxSize;
+	}
+
+
+	/**
+	 * Gets a connected DSSession, reusing an idle session when one is available.
+	 *
+	 * @return A connected DSSession, to be given back with {@link #release(DSSession)}.
+	 *
+	 * @throws InterruptedException
+	 * @throws DSException
+	 * @throws DSJQuerySessionTimeoutException if no session became free within the acquire timeout.
+	 */
+	DSSession acquire () throws InterruptedException, DSException {
+
+		if (acquireTimeoutMillis == 0) {
+			permits.acquire();
+		}
+		else if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+			throw new DSJQuerySessionTimeoutException("No DocuShare session became available within " + acquireTimeoutMillis + " ms.");
+		}
+
+		try {
+			PooledSession pooledSession;
+
+			while ((pooledSession = idleSessions.pollFirst()) != null) {
+
+				if (!pooledSession.dsSession.isClosed()) {
+					return pooledSession.dsSession;
+				}
+
+				openCount.decrementAndGet();
+				sessionListener.sessionClosed(pooledSession.dsSession);
+			}
+
+			DSSession dsSession = sessionFactory.createSession();
+			openCount.incrementAndGet();
+
+			return dsSession;
+		}
+		catch (DSException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Gives a DSSession back to the pool for other threads to use.
+	 *
+	 * @param dsSession - A session from {@link #acquire()}, or null to do nothing.
+	 */
+	void release (DSSession dsSession) {
+
+		if (dsSession == null) {
+			return;
+		}
+
+		idleSessions.offerFirst(new PooledSession(dsSession));
+		permits.release();
+
+		evictIdleSessions();
+	}
+
+
+	/**
+	 * Closes sessions that have been idle longer than the idle timeout,
+	 * while keeping at least the minimum number of sessions open.
+	 * The oldest sessions are at the end of the queue, so only they need to be checked.
+	 */
+	void evictIdleSessions () {
+
+		if (idleTimeoutMillis == 0) {
+			return;
+		}
+
+		long idleLimitMillis = System.currentTimeMillis() - idleTimeoutMillis;
+
+		PooledSession pooledSession;
+
+		while ((pooledSession = idleSessions.peekLast()) != null &&
+				pooledSession.idleSinceMillis < idleLimitMillis &&
+				openCount.get() > minSize) {
+
+			if (idleSessions.removeLastOccurrence(pooledSession)) {
+				openCount.decrementAndGet();
+				closeSession(pooledSession.dsSession);
+			}
+		}
+	}
+
+
+	/**
+	 * Opens sessions ahead of time, all at once, so the first queries do not wait to connect and log in.
+	 * The pool is filled up to the given count, but never beyond its maximum size.
+	 *
+	 * @param sessionCount - The number of open sessions wanted
+	 * @return The number of sessions opened
+	 *
+	 * @throws DSException
+	 * @throws InterruptedException
+	 */
+	int prewarm (int sessionCount) throws DSException, InterruptedException {
+
+		List<Future<DSSession>> openings = new ArrayList<>();
+
+		int targetCount = Math.min(sessionCount, maxSize);
+
+		while (true) {
+
+			int currentCount = openCount.get();
+
+			if (currentCount >= targetCount) {
+				break;
+			}
+
+			if (openCount.compareAndSet(currentCount, currentCount + 1)) {
+				openings.add(DSJQueryParallel.executor().submit(sessionFactory::createSession));
+			}
+		}
+
+		DSException failure = null;
+		int openedCount = 0;
+
+		for (int openingIndex = 0; openingIndex < openings.size(); openingIndex += 1) {
+			try {
+				idleSessions.offerLast(new PooledSession(openings.get(openingIndex).get()));
+				openedCount += 1;
+			}
+			catch (ExecutionException e) {
+
+				openCount.decrementAndGet();
+
+				if (failure == null && e.getCause() instanceof DSException) {
+					failure = (DSException) e.getCause();
+				}
+			}
+			catch (InterruptedException e) {
+
+				// Sessions still opening are no longer counted, and are closed once they open
+				for (Future<DSSession> abandonedOpening : openings.subList(openingIndex, openings.size())) {
+
+					openCount.decrementAndGet();
+
+					DSJQueryParallel.executor().submit(() -> {
+						try {
+							closeSession(abandonedOpening.get());
+						}
+						catch (Exception openingException) {
+							// never opened
+						}
+					});
+				}
+
+				Thread.currentThread().interrupt();
+				throw e;
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+
+		return openedCount;
+	}
+
+
+	/**
+	 * Starts checking idle sessions in the background.
+	 * Sessions that have been closed by the server are discarded,
+	 * idle sessions past the idle timeout are closed,
+	 * and the pool is topped back up to its minimum size.
+	 *
+	 * @param intervalMillis - How often to check, or 0 to stop checking.
+	 */
+	synchronized void startKeepAlive (long intervalMillis) {
+
+		stopKeepAlive();
+
+		if (intervalMillis > 0) {
+			keepAliveTask = KEEP_ALIVE_SCHEDULER.scheduleWithFixedDelay(this::keepAlive,
+					intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+
+	/**
+	 * Stops the background checks started by {@link #startKeepAlive(long)}.
+	 */
+	synchronized void stopKeepAlive () {
+
+		if (keepAliveTask != null) {
+			keepAliveTask.cancel(false);
+			keepAliveTask = null;
+		}
+	}
+
+
+	private void keepAlive () {
+
+		/*
+		 * Each session is taken out of the queue while it is checked,
+		 * so it cannot be handed out at the same time.
+		 */
+
+		for (PooledSession pooledSession : new ArrayList<>(idleSessions)) {
+
+			if (!idleSessions.removeFirstOccurrence(pooledSession)) {
+				continue;
+			}
+
+			if (isValid(pooledSession.dsSession)) {
+				idleSessions.offerLast(pooledSession);
+			}
+			else {
+				openCount.decrementAndGet();
+				closeSession(pooledSession.dsSession);
+			}
+		}
+
+		evictIdleSessions();
+
+		try {
+			prewarm(minSize);
+		}
+		catch (Exception e) {
+			// try again on the next check
+		}
+	}
+
+
+	/**
+	 * Checks that a session is still usable with a lightweight server call.
+	 */
+	private static boolean isValid (DSSession dsSession) {
+		try {
+			return !dsSession.isClosed() && dsSession.getLoginPrincipalHandle() != null;
+		}
+		catch (Exception e) {
+			return false;
+		}
+	}
+
+
+	/**
+	 * Tests if any sessions are currently handed out.
+	 */
+	boolean hasSessionsInUse () {
+		return permits.availablePermits() < maxSize;
+	}
+
+
+	/**
+	 * Tests if any sessions are open, idle or handed out, not counting one being created by the caller.
+	 */
+	boolean hasOpenSessions () {
+		return openCount.get() > 0;
+	}
+
+
+	/**
+	 * Closes all idle sessions.
+	 * Sessions currently in use are not affected.
+	 */
+	void closeIdleSessions () {
+
+		PooledSession pooledSession;
+
+		while ((pooledSession = idleSessions.pollFirst()) != null) {
+			openCount.decrementAndGet();
+			closeSession(pooledSession.dsSession);
+		}
+	}
+
+
+	/**
+	 * Closes a session.
+	 * The DSServer is shared with other sessions, so it is left open.
+	 */
+	private void closeSession (DSSession dsSession) {
+
+		try {
+			dsSession.close();
+		}
+		catch (Exception e) {
+			// ignore
+		}
+
+		sessionListener.sessionClosed(dsSession);
+	}
+}
@@ -0,0 +1,299 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSObject;
+
+
+/**
+ * Sorts objects by one or more attributes.
+ * Each object's attribute values are retrieved once, before sorting,
+ * rather than each time two objects are compared.
+ */
+final class DSJQuerySortKeys {
+
+	private final String[]  attributeNames;
+	private final boolean[] descending;
+
+
+	private DSJQuerySortKeys (String[] attributeNames, boolean[] descending) {
+		this.attributeNames = attributeNames;
+		this.descending = descending;
+	}
+
+
+	/**
+	 * Parses a list of sort attributes.
+	 *
+	 * @param sortAttributes - i.e. "title", "-modified_date". A leading "-" sorts in descending order.
+	 * @return The parsed sort keys
+	 *
+	 * @throws DSJQueryException
+	 */
+	static DSJQuerySortKeys parse (String... sortAttributes) throws DSJQueryException {
+
+		if (sortAttributes.length == 0) {
+			throw new DSJQueryException("At least one sort attribute is required.");
+		}
+
+		String[]  attributeNames = new String[sortAttributes.length];
+		boolean[] descending = new boolean[sortAttributes.length];
+
+		for (int index = 0; index < sortAttributes.length; index += 1) {
+
+			String sortAttribute = sortAttributes[index].trim();
+
+			descending[index] = sortAttribute.startsWith("-");
+			attributeNames[index] = (descending[index] ? sortAttribute.substring(1) : sortAttribute);
+
+			if (attributeNames[index].isEmpty()) {
+				throw new DSJQueryException("Invalid sort attribute: " + sortAttributes[index]);
+			}
+		}
+
+		return new DSJQuerySortKeys(attributeNames, descending);
+	}
+
+
+	/**
+	 * Sorts a list of objects.
+	 * Attribute values are retrieved first, spread over several threads, then the objects are sorted in memory.
+	 * Objects with equal values keep their current order.
+	 * Attributes that cannot be read from an object are treated as missing values.
+	 *
+	 * @param dsObjects
+	 * @param propertyCache - Where attribute values are read from
+	 * @param parallelism   - The most objects to retrieve attribute values for at the same time
+	 * @return A new, sorted list
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	List<DSObject> sort (List<DSObject> dsObjects, DSJQueryPropertyCache propertyCache, int parallelism) throws DSException, DSJQueryException, InterruptedException {
+
+		List<Object[]> keys = DSJQueryParallel.map(dsObjects, parallelism, dsObject -> extractKeys(dsObject, propertyCache));
+
+		List<Integer> order = new ArrayList<>(dsObjects.size());
+
+		for (int index = 0; index < dsObjects.size(); index += 1) {
+			order.add(index);
+		}
+
+		order.sort((index1, index2) -> compareKeys(keys.get(index1), keys.get(index2)));
+
+		List<DSObject> sortedDsObjects = new ArrayList<>(dsObjects.size());
+
+		for (int index : order) {
+			sortedDsObjects.add(dsObjects.get(index));
+		}
+
+		return sortedDsObjects;
+	}
+
+
+	/**
+	 * Starts collecting the first objects in sort order, from objects offered one at a time.
+	 *
+	 * @param limit         - The number of objects to keep
+	 * @param propertyCache - Where attribute values are read from
+	 * @return An empty collector
+	 */
+	TopCollector top (int limit, DSJQueryPropertyCache propertyCache) {
+		return new TopCollector(limit, propertyCache);
+	}
+
+
+	/**
+	 * Keeps the first objects in sort order, in a heap no larger than the number of objects kept.
+	 * The last of the kept objects is at the top of the heap,
+	 * so each new object only needs to be compared with it to know if it should replace it.
+	 */
+	final class TopCollector {
+
+		private final int limit;
+		private final DSJQueryPropertyCache propertyCache;
+		private final PriorityQueue<Entry> heap;
+
+		private long sequence = 0;
+
+
+		private TopCollector (int limit, DSJQueryPropertyCache propertyCache) {
+			this.limit = limit;
+			this.propertyCache = propertyCache;
+			this.heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)), (entry1, entry2) -> compareEntries(entry2, entry1));
+		}
+
+
+		/**
+		 * Offers an object, keeping it if it sorts ahead of the last object kept so far.
+		 *
+		 * @param dsObject
+		 */
+		void offer (DSObject dsObject) {
+
+			if (limit <= 0) {
+				return;
+			}
+
+			Entry entry = new Entry(dsObject, extractKeys(dsObject, propertyCache), sequence++);
+
+			if (heap.size() < limit) {
+				heap.add(entry);
+			}
+			else if (compareEntries(entry, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(entry);
+			}
+		}
+
+
+		/**
+		 * @return The kept objects, in sort order
+		 */
+		List<DSObject> toList () {
+
+			Entry[] entries = heap.toArray(new Entry[heap.size()]);
+			Arrays.sort(entries, DSJQuerySortKeys.this::compareEntries);
+
+			List<DSObject> topDsObjects = new ArrayList<>(entries.length);
+
+			for (Entry entry : entries) {
+				topDsObjects.add(entry.dsObject);
+			}
+
+			return topDsObjects;
+		}
+	}
+
+
+	/**
+	 * An object with its sort keys, and its position in the original order to keep equal objects in that order.
+	 */
+	private static final class Entry {
+
+		final DSObject dsObject;
+		final Object[] keys;
+		final long sequence;
+
+		Entry (DSObject dsObject, Object[] keys, long sequence) {
+			this.dsObject = dsObject;
+			this.keys = keys;
+			this.sequence = sequence;
+		}
+	}
+
+
+	private int compareEntries (Entry entry1, Entry entry2) {
+
+		int compare = compareKeys(entry1.keys, entry2.keys);
+
+		return (compare != 0 ? compare : Long.compare(entry1.sequence, entry2.sequence));
+	}
+
+
+	/**
+	 * Retrieves an object's sort attribute values.
+	 * Objects without an attribute, i.e. Collections sorted by a Document attribute, get a missing value.
+	 */
+	private Object[] extractKeys (DSObject dsObject, DSJQueryPropertyCache propertyCache) {
+
+		Object[] objectKeys = new Object[attributeNames.length];
+
+		for (int index = 0; index < attributeNames.length; index += 1) {
+			try {
+				objectKeys[index] = propertyCache.get(dsObject, attributeNames[index]);
+			}
+			catch (DSException e) {
+				objectKeys[index] = null;
+			}
+		}
+
+		return objectKeys;
+	}
+
+
+	private int compareKeys (Object[] keys1, Object[] keys2) {
+
+		for (int index = 0; index < attributeNames.length; index += 1) {
+
+			int compare = compareValues(keys1[index], keys2[index]);
+
+			if (compare != 0) {
+				return (descending[index] ? -compare : compare);
+			}
+		}
+
+		return 0;
+	}
+
+
+	/**
+	 * Compares two attribute values.
+	 * Missing values sort first. Numbers and dates compare by value, even when their classes differ.
+	 * Values of unrelated types are grouped by type, numbers, then dates, then text, then anything else.
+	 *
+	 * @param value1
+	 * @param value2
+	 * @return A negative number, zero, or a positive number as the first value is less than, equal to, or greater than the second.
+	 */
+	@SuppressWarnings("unchecked")
+	static int compareValues (Object value1, Object value2) {
+
+		if (value1 == null || value2 == null) {
+			return (value1 == null ? (value2 == null ? 0 : -1) : 1);
+		}
+		else if (value1 instanceof Number && value2 instanceof Number) {
+			return compareNumbers((Number) value1, (Number) value2);
+		}
+		else if (value1 instanceof Date && value2 instanceof Date) {
+			return Long.compare(((Date) value1).getTime(), ((Date) value2).getTime());
+		}
+		else if (value1 instanceof Comparable<?> && value1.getClass().equals(value2.getClass())) {
+			return ((Comparable<Object>) value1).compareTo(value2);
+		}
+
+		int typeCompare = Integer.compare(typeRank(value1), typeRank(value2));
+
+		if (typeCompare != 0) {
+			return typeCompare;
+		}
+
+		return value1.toString().compareTo(value2.toString());
+	}
+
+
+	private static int compareNumbers (Number number1, Number number2) {
+
+		if (isIntegral(number1) && isIntegral(number2)) {
+			return Long.compare(number1.longValue(), number2.longValue());
+		}
+
+		return Double.compare(number1.doubleValue(), number2.doubleValue());
+	}
+
+
+	private static boolean isIntegral (Number number) {
+		return (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte);
+	}
+
+
+	private static int typeRank (Object value) {
+
+		if (value instanceof Number) {
+			return 0;
+		}
+		else if (value instanceof Date) {
+			return 1;
+		}
+		else if (value instanceof String) {
+			return 2;
+		}
+		return 3;
+	}
+}
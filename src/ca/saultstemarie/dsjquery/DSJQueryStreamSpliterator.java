@@ -0,0 +1,93 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSObject;
+import com.xerox.docushare.DSSession;
+
+import ca.saultstemarie.dsjquery.DSJQueryException.DSJQueryDeferredException;
+
+
+/**
+ * Feeds a Stream from a DSJQueryPlan, one object at a time.
+ * A DSSession is taken from the pool when the first object is requested,
+ * and returned once the objects run out or the stream is closed.
+ */
+final class DSJQueryStreamSpliterator extends Spliterators.AbstractSpliterator<DSObject> implements AutoCloseable {
+
+	private final DSJQueryPlan plan;
+	private final DSJQuerySessionPool sessionPool;
+
+	private DSSession dsSession = null;
+	private DSJQueryPlan.Cursor cursor = null;
+	private boolean closed = false;
+
+
+	DSJQueryStreamSpliterator (DSJQueryPlan plan, DSJQuerySessionPool sessionPool) {
+		super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+		this.plan = plan;
+		this.sessionPool = sessionPool;
+	}
+
+
+	@Override
+	public synchronized boolean tryAdvance (Consumer<? super DSObject> action) {
+
+		if (closed) {
+			return false;
+		}
+
+		try {
+			if (cursor == null) {
+
+				if (plan.needsSession()) {
+					dsSession = sessionPool.getSession();
+				}
+
+				cursor = plan.open(dsSession);
+			}
+
+			DSObject item = cursor.next();
+
+			if (item == null) {
+				close();
+				return false;
+			}
+
+			action.accept(item);
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new DSJQueryDeferredException(e);
+		}
+		catch (DSException e) {
+			close();
+			throw new DSJQueryDeferredException(e);
+		}
+		catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Returns the DSSession to the pool, if one is held.
+	 */
+	@Override
+	public synchronized void close () {
+
+		closed = true;
+		cursor = null;
+
+		if (dsSession != null) {
+			sessionPool.returnSession(dsSession);
+			dsSession = null;
+		}
+	}
+}
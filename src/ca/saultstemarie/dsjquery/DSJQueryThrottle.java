@@ -0,0 +1,46 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Spaces out calls to the DocuShare server, shared by all threads working on the same bulk change,
+ * so a large change does not overwhelm the server.
+ */
+final class DSJQueryThrottle {
+
+	private final long intervalNanos;
+	private long nextStartNanos = System.nanoTime();
+
+
+	/**
+	 * @param operationsPerSecond - The most operations to start each second, across all threads
+	 */
+	DSJQueryThrottle (int operationsPerSecond) {
+		this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, operationsPerSecond);
+	}
+
+
+	/**
+	 * Waits until the next operation may start.
+	 *
+	 * @throws InterruptedException
+	 */
+	void acquire () throws InterruptedException {
+
+		long waitNanos;
+
+		synchronized (this) {
+
+			long nowNanos = System.nanoTime();
+			long startNanos = Math.max(nowNanos, nextStartNanos);
+
+			nextStartNanos = startNanos + intervalNanos;
+			waitNanos = startNanos - nowNanos;
+		}
+
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+}
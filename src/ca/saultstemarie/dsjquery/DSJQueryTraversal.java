@@ -0,0 +1,281 @@
+package ca.saultstemarie.dsjquery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.xerox.docushare.DSException;
+import com.xerox.docushare.DSObject;
+import com.xerox.docushare.DSObjectIterator;
+import com.xerox.docushare.DSSession;
+import com.xerox.docushare.object.DSCollection;
+
+
+/**
+ * Walks the Collection hierarchy beneath a set of objects, level by level, over several pooled DSSessions.
+ * <br>
+ * Collections waiting to be listed are kept in a shared queue, so a worker that runs out of work
+ * takes the next Collection found by any other worker.
+ * Each object is only visited once, so objects linked under several Collections, or Collections linked beneath themselves,
+ * are neither repeated nor walked forever.
+ * Objects are handed out as they are found, so a caller can use them before the walk is finished.
+ */
+final class DSJQueryTraversal implements AutoCloseable {
+
+	/**
+	 * The most objects found but not yet used by the caller, before workers wait for the caller to catch up.
+	 */
+	static final int MAX_BUFFERED_OBJECTS = 1024;
+
+	private static final long POLL_MILLIS = 100;
+
+
+	/**
+	 * A Collection waiting to be listed, with its depth beneath the starting objects.
+	 */
+	private static final class PendingCollection {
+
+		final DSObject collection;
+		final int depth;
+
+		PendingCollection (DSObject collection, int depth) {
+			this.collection = collection;
+			this.depth = depth;
+		}
+	}
+
+
+	private final DSJQuerySessionPool sessionPool;
+	private final int maxDepth;
+	private final DSJQueryPlan.ObjectFilter filter;
+
+	private final BlockingQueue<PendingCollection> pendingCollections = new LinkedBlockingQueue<>();
+	private final BlockingQueue<DSObject> foundObjects = new LinkedBlockingQueue<>(MAX_BUFFERED_OBJECTS);
+	private final Set<String> visitedHandles = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Collections queued or being listed. The walk is finished when none are left.
+	 */
+	private final AtomicInteger unfinishedCount = new AtomicInteger();
+	private final AtomicInteger runningWorkerCount = new AtomicInteger();
+
+	/**
+	 * Workers that could not get a DSSession. The walk only fails when none of the workers could.
+	 */
+	private final AtomicInteger sessionlessWorkerCount = new AtomicInteger();
+	private final int workerCount;
+
+	private volatile boolean closed = false;
+	private volatile Exception failure = null;
+
+
+	/**
+	 * Starts walking beneath the given objects.
+	 *
+	 * @param sessionPool  - The pool to take each worker's DSSession from
+	 * @param startObjects - The objects to walk beneath. They are not included in the results.
+	 * @param parallelism  - The most Collections to list at the same time, never more than the pool's maximum size
+	 * @param maxDepth     - The most levels to walk, 1 for children only, or 0 for no limit
+	 * @param filter       - Which objects to return, or null for all. Collections that do not match are still walked.
+	 */
+	DSJQueryTraversal (DSJQuerySessionPool sessionPool, List<DSObject> startObjects, int parallelism, int maxDepth, DSJQueryPlan.ObjectFilter filter) {
+
+		this.sessionPool = sessionPool;
+		this.maxDepth = maxDepth;
+		this.filter = filter;
+
+		for (DSObject startObject : startObjects) {
+			if (visitedHandles.add(startObject.getHandle().toString()) && startObject instanceof DSCollection) {
+				unfinishedCount.incrementAndGet();
+				pendingCollections.add(new PendingCollection(startObject, 0));
+			}
+		}
+
+		this.workerCount = Math.max(1, Math.min(parallelism, sessionPool.getMaxSize()));
+		runningWorkerCount.set(workerCount);
+
+		for (int workerIndex = 0; workerIndex < workerCount; workerIndex += 1) {
+			DSJQueryParallel.executor().submit(this::work);
+		}
+	}
+
+
+	private void work () {
+
+		DSSession dsSession;
+
+		try {
+			dsSession = sessionPool.getSession();
+		}
+		catch (Exception e) {
+
+			// Sessions may all be in use elsewhere, so the workers that got one carry on with the walk
+			if (sessionlessWorkerCount.incrementAndGet() == workerCount) {
+				fail(e);
+			}
+
+			runningWorkerCount.decrementAndGet();
+			return;
+		}
+
+		try {
+			while (!closed && unfinishedCount.get() > 0) {
+
+				PendingCollection pendingCollection = pendingCollections.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+				if (pendingCollection != null) {
+					try {
+						list(dsSession, pendingCollection);
+					}
+					finally {
+						unfinishedCount.decrementAndGet();
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			fail(e);
+		}
+		finally {
+			sessionPool.returnSession(dsSession);
+			runningWorkerCount.decrementAndGet();
+		}
+	}
+
+
+	private void fail (Exception e) {
+
+		if (failure == null) {
+			failure = e;
+		}
+
+		closed = true;
+	}
+
+
+	/**
+	 * Lists a Collection's children, returning the new ones and queueing the new Collections among them.
+	 * The Collection is retrieved again with the worker's own session, so its children are listed over that session.
+	 */
+	private void list (DSSession dsSession, PendingCollection pendingCollection) throws DSException, InterruptedException {
+
+		DSCollection collection = (DSCollection) dsSession.getObject(pendingCollection.collection.getHandle());
+		DSObjectIterator iterator = collection.children(null);
+
+		int childDepth = pendingCollection.depth + 1;
+
+		while (!closed && iterator.hasNext()) {
+
+			DSObject child = iterator.nextObject();
+
+			if (!visitedHandles.add(child.getHandle().toString())) {
+				continue;
+			}
+
+			if (child instanceof DSCollection && (maxDepth <= 0 || childDepth < maxDepth)) {
+				unfinishedCount.incrementAndGet();
+				pendingCollections.add(new PendingCollection(child, childDepth));
+			}
+
+			if (filter == null || filter.test(child)) {
+				while (!closed && !foundObjects.offer(child, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					// wait for the caller to use some of the found objects
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Waits for the next object found.
+	 *
+	 * @return The next object, or null once the walk is finished.
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	DSObject next () throws DSException, DSJQueryException, InterruptedException {
+
+		while (true) {
+
+			DSObject foundObject = foundObjects.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+			if (foundObject != null) {
+				return foundObject;
+			}
+
+			throwFailure();
+
+			/*
+			 * Workers only stop after handing out their objects, so an empty queue after they stop is the end.
+			 * Collections are only counted as finished once their objects are handed out, so the same holds
+			 * once every Collection is finished, even while a worker is still waiting for a session.
+			 */
+			if ((closed || runningWorkerCount.get() == 0 || unfinishedCount.get() == 0) && foundObjects.isEmpty()) {
+				return null;
+			}
+		}
+	}
+
+
+	/**
+	 * Waits for the whole walk to finish.
+	 *
+	 * @return All of the objects found, in the order they were found
+	 *
+	 * @throws DSException
+	 * @throws DSJQueryException
+	 * @throws InterruptedException
+	 */
+	List<DSObject> collect () throws DSException, DSJQueryException, InterruptedException {
+
+		List<DSObject> collectedObjects = new ArrayList<>();
+
+		try {
+			DSObject foundObject;
+
+			while ((foundObject = next()) != null) {
+				collectedObjects.add(foundObject);
+			}
+		}
+		finally {
+			close();
+		}
+
+		return collectedObjects;
+	}
+
+
+	private void throwFailure () throws DSException, DSJQueryException, InterruptedException {
+
+		Exception currentFailure = failure;
+
+		if (currentFailure instanceof DSException) {
+			throw (DSException) currentFailure;
+		}
+		else if (currentFailure instanceof DSJQueryException) {
+			throw (DSJQueryException) currentFailure;
+		}
+		else if (currentFailure instanceof InterruptedException) {
+			throw (InterruptedException) currentFailure;
+		}
+		else if (currentFailure instanceof RuntimeException) {
+			throw (RuntimeException) currentFailure;
+		}
+	}
+
+
+	/**
+	 * Stops the walk. Workers return their DSSessions once their current Collection is listed.
+	 */
+	@Override
+	public void close () {
+		closed = true;
+	}
+}